@@ -0,0 +1,64 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * JIRA and Zephyr responses recorded from a real server, in the fixtures resource folder.
+ */
+class Fixtures {
+
+    /**
+     * A schedule response with five executions of the same test.
+     */
+    static final String SCHEDULE = "schedule.json";
+
+    /**
+     * The five steps of a manual test.
+     */
+    static final String TEST_STEPS = "teststeps.json";
+
+    /**
+     * A page of search results with three manual tests.
+     */
+    static final String MANUAL_TESTS = "search.json";
+
+    /**
+     * The story the manual tests are labelled with.
+     */
+    static final String STORY = "story.json";
+
+    static byte[] bytesOf(String fixture) throws IOException {
+        return Resources.toByteArray(Resources.getResource("fixtures/" + fixture));
+    }
+
+    static InputStream streamOf(byte[] response) {
+        return new ByteArrayInputStream(response);
+    }
+
+    static List<IssueSummary> issuesIn(String fixture) throws IOException, JSONException {
+        JSONObject searchResults = new JSONObject(new String(bytesOf(fixture), Charsets.UTF_8));
+        return PagedIssueSearch.issueSummariesIn(searchResults.getJSONArray("issues"));
+    }
+
+    /**
+     * As many manual tests as needed, made by repeating the recorded ones.
+     */
+    static List<IssueSummary> manualTests(int count) throws IOException, JSONException {
+        List<IssueSummary> recordedTests = issuesIn(MANUAL_TESTS);
+        List<IssueSummary> manualTests = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            manualTests.add(recordedTests.get(i % recordedTests.size()));
+        }
+        return manualTests;
+    }
+}
@@ -0,0 +1,86 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.TestStepDefinition;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole conversion of a project's manual tests into test outcomes, from the recorded responses,
+ * without the time spent waiting for the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManualTestConversionBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int testCount;
+
+    private final ZephyrResponseReader reader = new ZephyrResponseReader();
+    private final ManualTestConverter converter = new ManualTestConverter();
+
+    private List<IssueSummary> manualTests;
+    private Map<String, IssueSummary> labelledIssues;
+    private byte[] scheduleResponse;
+    private byte[] stepResponse;
+
+    @Setup
+    public void loadFixtures() throws IOException, JSONException {
+        manualTests = Fixtures.manualTests(testCount);
+        labelledIssues = Maps.newHashMap();
+        for (IssueSummary story : Fixtures.issuesIn(Fixtures.STORY)) {
+            labelledIssues.put(story.getKey(), story);
+        }
+        scheduleResponse = Fixtures.bytesOf(Fixtures.SCHEDULE);
+        stepResponse = Fixtures.bytesOf(Fixtures.TEST_STEPS);
+    }
+
+    @Benchmark
+    public void convertManualTests(Blackhole outcomes) throws IOException {
+        for (IssueSummary manualTest : manualTests) {
+            TestExecutionRecord executionRecord
+                    = converter.executionRecordFrom(reader.readLatestScheduleFrom(Fixtures.streamOf(scheduleResponse)));
+            List<TestStepDefinition> steps = reader.readStepsFrom(Fixtures.streamOf(stepResponse));
+            ManualTestRecord record = converter.manualTestRecordFrom(manualTest, labelledIssuesOf(manualTest),
+                                                                     executionRecord, steps,
+                                                                     ImmutableMap.<Long, String>of());
+            outcomes.consume(converter.outcomeFrom(record));
+        }
+    }
+
+    /**
+     * Labels are looked up as if they were all in the label cache.
+     */
+    private List<IssueSummary> labelledIssuesOf(IssueSummary manualTest) {
+        ImmutableList.Builder<IssueSummary> matchingIssues = ImmutableList.builder();
+        for (String label : manualTest.getLabels()) {
+            if (labelledIssues.containsKey(label)) {
+                matchingIssues.add(labelledIssues.get(label));
+            }
+        }
+        return matchingIssues.build();
+    }
+}
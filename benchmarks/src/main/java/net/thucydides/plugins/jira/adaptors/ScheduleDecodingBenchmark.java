@@ -0,0 +1,48 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.LatestSchedule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the latest schedule and its status out of a schedule response, and turning it into an execution record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScheduleDecodingBenchmark {
+
+    private final ZephyrResponseReader reader = new ZephyrResponseReader();
+    private final ManualTestConverter converter = new ManualTestConverter();
+
+    private byte[] scheduleResponse;
+
+    @Setup
+    public void loadFixtures() throws IOException {
+        scheduleResponse = Fixtures.bytesOf(Fixtures.SCHEDULE);
+    }
+
+    @Benchmark
+    public LatestSchedule readLatestSchedule() throws IOException {
+        return reader.readLatestScheduleFrom(Fixtures.streamOf(scheduleResponse));
+    }
+
+    @Benchmark
+    public TestExecutionRecord readExecutionRecord() throws IOException {
+        return converter.executionRecordFrom(reader.readLatestScheduleFrom(Fixtures.streamOf(scheduleResponse)));
+    }
+}
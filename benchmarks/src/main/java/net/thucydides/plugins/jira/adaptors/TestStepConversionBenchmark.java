@@ -0,0 +1,69 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import net.thucydides.core.model.TestOutcome;
+import net.thucydides.core.model.TestResult;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.TestStepDefinition;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.joda.time.DateTime;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the steps of a manual test out of a test step response, and recording them as test steps
+ * with the result of each step.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TestStepConversionBenchmark {
+
+    private final ZephyrResponseReader reader = new ZephyrResponseReader();
+    private final ManualTestConverter converter = new ManualTestConverter();
+
+    private byte[] stepResponse;
+    private IssueSummary manualTest;
+    private TestExecutionRecord passedExecution;
+    private Map<Long, String> passedSteps;
+
+    @Setup
+    public void loadFixtures() throws IOException, JSONException {
+        stepResponse = Fixtures.bytesOf(Fixtures.TEST_STEPS);
+        manualTest = Fixtures.manualTests(1).get(0);
+        passedExecution = new TestExecutionRecord(TestResult.SUCCESS, new DateTime(), false);
+        passedSteps = Maps.newHashMap();
+        for (TestStepDefinition step : reader.readStepsFrom(Fixtures.streamOf(stepResponse))) {
+            passedSteps.put(step.id, "1");
+        }
+    }
+
+    @Benchmark
+    public List<TestStepDefinition> readSteps() throws IOException {
+        return reader.readStepsFrom(Fixtures.streamOf(stepResponse));
+    }
+
+    @Benchmark
+    public TestOutcome recordTestSteps() throws IOException {
+        List<TestStepDefinition> steps = reader.readStepsFrom(Fixtures.streamOf(stepResponse));
+        return converter.outcomeFrom(converter.manualTestRecordFrom(manualTest, ImmutableList.<IssueSummary>of(),
+                                                                    passedExecution, steps, passedSteps));
+    }
+}
@@ -0,0 +1,56 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the absolute and relative execution dates found in schedule responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZephyrDateParserBenchmark {
+
+    private ZephyrDateParser parser;
+    private String threeDaysAgo;
+
+    @Setup
+    public void createParser() {
+        parser = new ZephyrDateParser(new DateTime());
+        threeDaysAgo = new DateTime().minusDays(3).dayOfWeek().getAsText() + " 9:13 AM";
+    }
+
+    @Benchmark
+    public DateTime parseAbsoluteDate() {
+        return parser.parse("26/Jul/13 4:03 PM");
+    }
+
+    @Benchmark
+    public DateTime parseToday() {
+        return parser.parse("Today 9:13 AM");
+    }
+
+    @Benchmark
+    public DateTime parseDayOfTheWeek() {
+        return parser.parse(threeDaysAgo);
+    }
+
+    @Benchmark
+    public ZephyrDateParser createParserForToday() {
+        return new ZephyrDateParser(new DateTime());
+    }
+}
@@ -0,0 +1,75 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Looks up the issues referred to by the labels of a batch of tests with a few "key in (...)" JQL queries,
+ * and puts them in the label cache before the tests are converted.
+ * Labels that are not shaped like issue keys, or that are not found, are left to the usual one-by-one lookup.
+ */
+class BatchLabelResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchLabelResolver.class);
+
+    private static final Pattern ISSUE_KEY = Pattern.compile("[A-Z][A-Z0-9_]*-[0-9]+");
+
+    private final ZephyrRestClient restClient;
+    private final IssueSummaryCache issueSummaryCache;
+    private final int batchSize;
+
+    BatchLabelResolver(ZephyrRestClient restClient, IssueSummaryCache issueSummaryCache, int batchSize) {
+        this.restClient = restClient;
+        this.issueSummaryCache = issueSummaryCache;
+        this.batchSize = batchSize;
+    }
+
+    public void resolveLabelsOf(List<IssueSummary> manualTests) {
+        for(List<String> keys : Iterables.partition(uncachedIssueKeysIn(manualTests), batchSize)) {
+            cacheIssuesWithKeys(keys);
+        }
+    }
+
+    private Set<String> uncachedIssueKeysIn(List<IssueSummary> manualTests) {
+        Set<String> issueKeys = Sets.newLinkedHashSet();
+        for(IssueSummary manualTest : manualTests) {
+            for(String label : manualTest.getLabels()) {
+                if (ISSUE_KEY.matcher(label).matches() && !issueSummaryCache.contains(label)) {
+                    issueKeys.add(label);
+                }
+            }
+        }
+        return issueKeys;
+    }
+
+    /**
+     * JIRA rejects the whole query if any of the keys does not exist, in which case each half of the batch
+     * is tried on its own, until only the keys JIRA does not know are left for the one-by-one lookup.
+     */
+    private void cacheIssuesWithKeys(List<String> keys) {
+        String jql = "key in (" + Joiner.on(", ").join(keys) + ")";
+        try (PagedIssueSearch search = new PagedIssueSearch(restClient, jql, keys.size())) {
+            while (search.hasNext()) {
+                for(IssueSummary issue : search.next()) {
+                    issueSummaryCache.put(issue.getKey(), Optional.of(issue));
+                }
+            }
+        } catch (IllegalArgumentException queryRejected) {
+            LOGGER.debug("JIRA rejected a batch of {} issue keys", keys.size(), queryRejected);
+            if (keys.size() > 1) {
+                int half = keys.size() / 2;
+                cacheIssuesWithKeys(keys.subList(0, half));
+                cacheIssuesWithKeys(keys.subList(half, keys.size()));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.collect.Maps;
+import org.joda.time.LocalDate;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.ws.rs.client.WebTarget;
+import java.util.Map;
+
+/**
+ * Pages through every Zephyr execution in a project using a ZQL search, and keeps the latest execution of each test.
+ * This replaces one schedule request per test with one request per page of executions.
+ */
+class BulkExecutionLoader {
+
+    private static final String ZQL_SEARCH = "rest/zephyr/latest/zql/executeSearch";
+
+    private static final ExecutionListener IGNORE_EXECUTIONS = new ExecutionListener() {
+        @Override
+        public void executionRead(JSONObject execution) {
+        }
+    };
+
+    private final ZephyrRestClient restClient;
+    private final int pageSize;
+    private final ExecutionListener executionListener;
+
+    /**
+     * Is told about every execution in the pages, not just the latest execution of each test.
+     */
+    interface ExecutionListener {
+        void executionRead(JSONObject execution) throws JSONException;
+    }
+
+    BulkExecutionLoader(ZephyrRestClient restClient, int pageSize) {
+        this(restClient, pageSize, IGNORE_EXECUTIONS);
+    }
+
+    BulkExecutionLoader(ZephyrRestClient restClient, int pageSize, ExecutionListener executionListener) {
+        this.restClient = restClient;
+        this.pageSize = pageSize;
+        this.executionListener = executionListener;
+    }
+
+    /**
+     * Returns the latest execution of each test in the project, indexed by the issue id of the test.
+     * Execution ids are allocated in sequence, so the execution with the highest id is the latest one.
+     */
+    public Map<Long, JSONObject> latestExecutionsForProject(String project) throws JSONException {
+        return latestExecutionsMatching(projectClauseFor(project));
+    }
+
+    /**
+     * Returns the latest execution of each test in the project that was executed on or after the given day.
+     */
+    public Map<Long, JSONObject> latestExecutionsForProjectSince(String project, LocalDate day) throws JSONException {
+        return latestExecutionsMatching(projectClauseFor(project)
+                                        + " AND executionDate >= \"" + day.toString("yyyy-MM-dd") + "\"");
+    }
+
+    private String projectClauseFor(String project) {
+        return "project = \"" + project + "\"";
+    }
+
+    private Map<Long, JSONObject> latestExecutionsMatching(String zqlQuery) throws JSONException {
+        Map<Long, JSONObject> latestExecutions = Maps.newHashMap();
+        int offset = 0;
+        int totalCount;
+        do {
+            JSONObject page = executionPage(zqlQuery, offset);
+            JSONArray executions = page.getJSONArray("executions");
+            for (int i = 0; i < executions.length(); i++) {
+                JSONObject execution = executions.getJSONObject(i);
+                executionListener.executionRead(execution);
+                keepIfLatest(execution, latestExecutions);
+            }
+            if (executions.length() == 0) {
+                break;
+            }
+            offset += executions.length();
+            totalCount = page.getInt("totalCount");
+        } while (offset < totalCount);
+        return latestExecutions;
+    }
+
+    private void keepIfLatest(JSONObject execution, Map<Long, JSONObject> latestExecutions) throws JSONException {
+        Long issueId = execution.getLong("issueId");
+        JSONObject previousExecution = latestExecutions.get(issueId);
+        if ((previousExecution == null) || (previousExecution.getLong("id") < execution.getLong("id"))) {
+            latestExecutions.put(issueId, execution);
+        }
+    }
+
+    private JSONObject executionPage(String zqlQuery, int offset) throws JSONException {
+        WebTarget target = restClient.target(ZQL_SEARCH)
+                                     .queryParam("zqlQuery", zqlQuery)
+                                     .queryParam("offset", offset)
+                                     .queryParam("maxRecords", pageSize);
+        return restClient.getJSONObject(ZephyrMetrics.EXECUTION_SEARCH, target);
+    }
+}
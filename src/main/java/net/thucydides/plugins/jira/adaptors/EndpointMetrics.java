@@ -0,0 +1,120 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSortedMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps request counts, failures, bytes received and a latency histogram for each endpoint,
+ * and logs a summary of them when a load completes. The figures add up over every load made by the adaptor.
+ */
+public class EndpointMetrics implements ZephyrMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndpointMetrics.class);
+
+    private final ConcurrentMap<String, EndpointStatistics> endpoints = new ConcurrentHashMap<>();
+    private volatile CacheStats labelCacheStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    /**
+     * The figures for a single endpoint.
+     */
+    public static class EndpointStatistics {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        /**
+         * The latency in microseconds that the given proportion (between 0 and 1) of requests came in under.
+         */
+        public long getLatencyPercentileInMicros(double proportion) {
+            return latencies.percentileInMicros(proportion);
+        }
+    }
+
+    @Override
+    public void requestCompleted(String endpoint, long durationInNanos, long bytesReceived) {
+        EndpointStatistics statistics = statisticsFor(endpoint);
+        statistics.requests.incrementAndGet();
+        statistics.bytesReceived.addAndGet(bytesReceived);
+        statistics.latencies.record(durationInNanos);
+    }
+
+    @Override
+    public void requestFailed(String endpoint, long durationInNanos) {
+        EndpointStatistics statistics = statisticsFor(endpoint);
+        statistics.requests.incrementAndGet();
+        statistics.failures.incrementAndGet();
+        statistics.latencies.record(durationInNanos);
+    }
+
+    @Override
+    public void loadCompleted(CacheStats labelCacheStats) {
+        this.labelCacheStats = labelCacheStats;
+        LOGGER.info(getSummary());
+    }
+
+    public Map<String, EndpointStatistics> getEndpointStatistics() {
+        return ImmutableSortedMap.copyOf(endpoints);
+    }
+
+    public CacheStats getLabelCacheStats() {
+        return labelCacheStats;
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder("Zephyr requests:");
+        for (Map.Entry<String, EndpointStatistics> endpoint : getEndpointStatistics().entrySet()) {
+            EndpointStatistics statistics = endpoint.getValue();
+            summary.append(String.format("%n  %-14s %7d requests, %5d failed, p50 %6.1f ms, p95 %6.1f ms, p99 %6.1f ms, %8d KB",
+                                         endpoint.getKey(),
+                                         statistics.getRequestCount(),
+                                         statistics.getFailureCount(),
+                                         inMillis(statistics.getLatencyPercentileInMicros(0.50)),
+                                         inMillis(statistics.getLatencyPercentileInMicros(0.95)),
+                                         inMillis(statistics.getLatencyPercentileInMicros(0.99)),
+                                         statistics.getBytesReceived() / 1024));
+        }
+        if (labelCacheStats.requestCount() > 0) {
+            summary.append(String.format("%n  label cache    %5.1f%% hits (%d hits, %d misses)",
+                                         labelCacheStats.hitRate() * 100,
+                                         labelCacheStats.hitCount(),
+                                         labelCacheStats.missCount()));
+        }
+        return summary.toString();
+    }
+
+    private EndpointStatistics statisticsFor(String endpoint) {
+        EndpointStatistics statistics = endpoints.get(endpoint);
+        if (statistics == null) {
+            EndpointStatistics newStatistics = new EndpointStatistics();
+            statistics = endpoints.putIfAbsent(endpoint, newStatistics);
+            if (statistics == null) {
+                statistics = newStatistics;
+            }
+        }
+        return statistics;
+    }
+
+    private double inMillis(long micros) {
+        return micros / 1000.0;
+    }
+}
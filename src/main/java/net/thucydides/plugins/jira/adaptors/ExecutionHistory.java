@@ -0,0 +1,272 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.collect.Maps;
+import net.thucydides.core.model.TestResult;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Every Zephyr execution read during a load, kept in parallel arrays rather than as JSON objects or dates:
+ * each execution takes up an issue id, an execution id, a timestamp and a one-byte status id.
+ * Status ids are mapped to test results through a table of the statuses seen in the responses.
+ * Executions can be added from several fetch threads at once.
+ * Trends read the executions through an index sorted by test, which is built once, when the first trend is asked for
+ * after an execution was added, so the trend of a single test only reads that test's executions.
+ */
+public class ExecutionHistory {
+
+    /**
+     * The status id recorded for statuses whose id does not fit in a byte.
+     */
+    public static final byte UNKNOWN_STATUS = Byte.MIN_VALUE;
+
+    /**
+     * The timestamp recorded for executions that have been scheduled but not run.
+     */
+    public static final long NOT_EXECUTED = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int STATUS_COUNT = 256;
+
+    private long[] issueIds = new long[INITIAL_CAPACITY];
+    private long[] executionIds = new long[INITIAL_CAPACITY];
+    private long[] executedAt = new long[INITIAL_CAPACITY];
+    private byte[] statusIds = new byte[INITIAL_CAPACITY];
+    private int size;
+    private int[] executionsInOrder;
+
+    private final String[] statusNames = new String[STATUS_COUNT];
+    private final TestResult[] statusResults = new TestResult[STATUS_COUNT];
+
+    /**
+     * How a test's executions have turned out over time. Only executions that were actually run are counted.
+     */
+    public static class ExecutionTrend {
+        private int executions;
+        private int passes;
+        private int outcomeChanges;
+        private boolean lastPassed;
+
+        private void add(boolean passed) {
+            if (executions > 0 && passed != lastPassed) {
+                outcomeChanges++;
+            }
+            executions++;
+            if (passed) {
+                passes++;
+            }
+            lastPassed = passed;
+        }
+
+        public int getExecutionCount() {
+            return executions;
+        }
+
+        public int getPassCount() {
+            return passes;
+        }
+
+        /**
+         * The proportion of executions that passed, or zero for a test that has never been run.
+         */
+        public double getPassRate() {
+            return (executions > 0) ? ((double) passes) / executions : 0;
+        }
+
+        /**
+         * The proportion of consecutive executions where the test went from passing to not passing or back again.
+         * A test that always passes or always fails has no flakiness at all.
+         */
+        public double getFlakiness() {
+            return (executions > 1) ? ((double) outcomeChanges) / (executions - 1) : 0;
+        }
+    }
+
+    /**
+     * Zephyr status ids are small integers, with -1 for unexecuted.
+     */
+    static byte statusIdFrom(String statusId) {
+        try {
+            int id = Integer.parseInt(statusId);
+            return (id > Byte.MIN_VALUE && id <= Byte.MAX_VALUE) ? (byte) id : UNKNOWN_STATUS;
+        } catch (NumberFormatException notAStatusId) {
+            return UNKNOWN_STATUS;
+        }
+    }
+
+    synchronized void registerStatus(byte statusId, String statusName, TestResult testResult) {
+        statusNames[statusId & 0xFF] = statusName;
+        statusResults[statusId & 0xFF] = testResult;
+    }
+
+    synchronized void add(long issueId, long executionId, byte statusId, long executedAtInMillis) {
+        if (size == statusIds.length) {
+            grow();
+        }
+        issueIds[size] = issueId;
+        executionIds[size] = executionId;
+        statusIds[size] = statusId;
+        executedAt[size] = executedAtInMillis;
+        size++;
+        executionsInOrder = null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long issueIdAt(int index) {
+        return issueIds[checked(index)];
+    }
+
+    public synchronized long executionIdAt(int index) {
+        return executionIds[checked(index)];
+    }
+
+    public synchronized byte statusIdAt(int index) {
+        return statusIds[checked(index)];
+    }
+
+    /**
+     * When the execution was run, in milliseconds since the epoch, or NOT_EXECUTED.
+     */
+    public synchronized long executedAtInMillis(int index) {
+        return executedAt[checked(index)];
+    }
+
+    /**
+     * The name Zephyr gave the status, or null if the status was never described in a response.
+     */
+    public synchronized String statusNameOf(byte statusId) {
+        return statusNames[statusId & 0xFF];
+    }
+
+    public synchronized TestResult resultOf(byte statusId) {
+        TestResult testResult = statusResults[statusId & 0xFF];
+        return (testResult != null) ? testResult : TestResult.PENDING;
+    }
+
+    /**
+     * The trend of a single test, in execution order.
+     */
+    public synchronized ExecutionTrend trendOf(long issueId) {
+        int[] executions = executionsInOrder();
+        ExecutionTrend trend = new ExecutionTrend();
+        for(int next = firstExecutionOf(issueId, executions);
+            next < executions.length && issueIds[executions[next]] == issueId; next++) {
+            trend.add(passed(executions[next]));
+        }
+        return trend;
+    }
+
+    /**
+     * The trend of every test in the history, keyed by issue id, from a single pass over the executions.
+     */
+    public synchronized Map<Long, ExecutionTrend> trends() {
+        Map<Long, ExecutionTrend> trends = Maps.newLinkedHashMap();
+        ExecutionTrend trend = null;
+        long trendIssueId = 0;
+        for(int index : executionsInOrder()) {
+            if (trend == null || issueIds[index] != trendIssueId) {
+                trendIssueId = issueIds[index];
+                trend = new ExecutionTrend();
+                trends.put(trendIssueId, trend);
+            }
+            trend.add(passed(index));
+        }
+        return trends;
+    }
+
+    private boolean passed(int index) {
+        return resultOf(statusIds[index]) == TestResult.SUCCESS;
+    }
+
+    /**
+     * The executions that were run, ordered by test and then by execution id, since execution ids are allocated
+     * in sequence. Timestamps are only given to the minute, so they cannot tell executions apart on their own.
+     */
+    private int[] executionsInOrder() {
+        if (executionsInOrder == null) {
+            int[] executions = new int[executedCount()];
+            int next = 0;
+            for(int index = 0; index < size; index++) {
+                if (executedAt[index] != NOT_EXECUTED) {
+                    executions[next++] = index;
+                }
+            }
+            sort(executions, new int[executions.length], 0, executions.length);
+            executionsInOrder = executions;
+        }
+        return executionsInOrder;
+    }
+
+    /**
+     * Where the executions of a test start in the sorted executions, or where they would be if there are none.
+     */
+    private int firstExecutionOf(long issueId, int[] executions) {
+        int low = 0;
+        int high = executions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (issueIds[executions[middle]] < issueId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A merge sort of the execution indexes, which keeps them as ints rather than boxing them for a comparator.
+     */
+    private void sort(int[] executions, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(executions, buffer, from, middle);
+        sort(executions, buffer, middle, to);
+        System.arraycopy(executions, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for(int next = from; next < to; next++) {
+            if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0)) {
+                executions[next] = buffer[left++];
+            } else {
+                executions[next] = buffer[right++];
+            }
+        }
+    }
+
+    private int compare(int first, int second) {
+        int byIssue = Long.compare(issueIds[first], issueIds[second]);
+        return (byIssue != 0) ? byIssue : Long.compare(executionIds[first], executionIds[second]);
+    }
+
+    private int executedCount() {
+        int executed = 0;
+        for(int index = 0; index < size; index++) {
+            if (executedAt[index] != NOT_EXECUTED) {
+                executed++;
+            }
+        }
+        return executed;
+    }
+
+    private int checked(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("No execution " + index + " in a history of " + size);
+        }
+        return index;
+    }
+
+    private void grow() {
+        int capacity = statusIds.length * 2;
+        issueIds = Arrays.copyOf(issueIds, capacity);
+        executionIds = Arrays.copyOf(executionIds, capacity);
+        executedAt = Arrays.copyOf(executedAt, capacity);
+        statusIds = Arrays.copyOf(statusIds, capacity);
+    }
+}
@@ -0,0 +1,159 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of the issues that labels refer to.
+ * Entries expire a fixed time after they are written. Labels that do not match any issue are remembered too,
+ * for a separate (usually shorter) time, so that a newly created issue is picked up soon.
+ * Lookups are single-flight: while an issue is being fetched from JIRA,
+ * everyone else asking for the same key shares that result instead of sending their own request.
+ */
+class IssueSummaryCache {
+
+    interface AsyncIssueLookup {
+        ListenableFuture<Optional<IssueSummary>> findByKey(String key);
+    }
+
+    private final Cache<String, IssueSummary> knownIssues;
+    private final Cache<String, Boolean> unknownIssues;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadSuccessCount = new AtomicLong();
+    private final AtomicLong loadExceptionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final ConcurrentMap<String, SettableFuture<Optional<IssueSummary>>> lookupsInFlight = Maps.newConcurrentMap();
+
+    IssueSummaryCache(long maximumSize, long timeToLiveInSeconds, long unknownIssueTimeToLiveInSeconds) {
+        knownIssues = CacheBuilder.newBuilder()
+                                  .maximumSize(maximumSize)
+                                  .expireAfterWrite(timeToLiveInSeconds, TimeUnit.SECONDS)
+                                  .recordStats()
+                                  .build();
+        unknownIssues = CacheBuilder.newBuilder()
+                                    .maximumSize(maximumSize)
+                                    .expireAfterWrite(unknownIssueTimeToLiveInSeconds, TimeUnit.SECONDS)
+                                    .recordStats()
+                                    .build();
+    }
+
+    /**
+     * Looks an issue up without blocking. Callers asking for a key that is already being fetched
+     * share the same result.
+     */
+    public ListenableFuture<Optional<IssueSummary>> issueWithKeyAsync(final String key, AsyncIssueLookup lookup) {
+        Optional<Optional<IssueSummary>> cachedIssue = cachedIssueWithKey(key);
+        if (cachedIssue.isPresent()) {
+            return Futures.immediateFuture(cachedIssue.get());
+        }
+        final SettableFuture<Optional<IssueSummary>> newLookup = SettableFuture.create();
+        SettableFuture<Optional<IssueSummary>> lookupInFlight = lookupsInFlight.putIfAbsent(key, newLookup);
+        if (lookupInFlight != null) {
+            return lookupInFlight;
+        }
+        Optional<Optional<IssueSummary>> justLookedUp = alreadyLookedUp(key);
+        if (justLookedUp.isPresent()) {
+            newLookup.set(justLookedUp.get());
+            lookupsInFlight.remove(key, newLookup);
+            return newLookup;
+        }
+        final long startTime = System.nanoTime();
+        Futures.addCallback(startLookUp(key, lookup), new FutureCallback<Optional<IssueSummary>>() {
+            @Override
+            public void onSuccess(Optional<IssueSummary> issue) {
+                loadSuccessCount.incrementAndGet();
+                totalLoadTime.addAndGet(System.nanoTime() - startTime);
+                put(key, issue);
+                newLookup.set(issue);
+                lookupsInFlight.remove(key, newLookup);
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                loadExceptionCount.incrementAndGet();
+                totalLoadTime.addAndGet(System.nanoTime() - startTime);
+                newLookup.setException(failure);
+                lookupsInFlight.remove(key, newLookup);
+            }
+        });
+        return newLookup;
+    }
+
+    private ListenableFuture<Optional<IssueSummary>> startLookUp(String key, AsyncIssueLookup lookup) {
+        try {
+            return lookup.findByKey(key);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Another thread may have finished looking this key up between the cache check and claiming the lookup,
+     * in which case the result is already in the cache. This check is not counted as a hit or a miss.
+     */
+    private Optional<Optional<IssueSummary>> alreadyLookedUp(String key) {
+        IssueSummary knownIssue = knownIssues.getIfPresent(key);
+        if (knownIssue != null) {
+            return Optional.of(Optional.of(knownIssue));
+        }
+        if (unknownIssues.getIfPresent(key) != null) {
+            return Optional.of(Optional.<IssueSummary>absent());
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Returns the cached lookup result for this key, which may itself be absent if no issue has this key,
+     * or nothing at all if the key needs to be looked up again.
+     */
+    public Optional<Optional<IssueSummary>> cachedIssueWithKey(String key) {
+        IssueSummary knownIssue = knownIssues.getIfPresent(key);
+        if (knownIssue != null) {
+            hitCount.incrementAndGet();
+            return Optional.of(Optional.of(knownIssue));
+        }
+        if (unknownIssues.getIfPresent(key) != null) {
+            hitCount.incrementAndGet();
+            return Optional.of(Optional.<IssueSummary>absent());
+        }
+        missCount.incrementAndGet();
+        return Optional.absent();
+    }
+
+    /**
+     * Checks whether a key is cached without counting it as a hit or a miss.
+     */
+    public boolean contains(String key) {
+        return (knownIssues.getIfPresent(key) != null) || (unknownIssues.getIfPresent(key) != null);
+    }
+
+    public void put(String key, Optional<IssueSummary> issue) {
+        if (issue.isPresent()) {
+            knownIssues.put(key, issue.get());
+        } else {
+            unknownIssues.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Hits and misses as seen by cachedIssueWithKey, and the lookups sent to JIRA, whether they succeeded or failed.
+     */
+    public CacheStats stats() {
+        long evictionCount = knownIssues.stats().evictionCount() + unknownIssues.stats().evictionCount();
+        return new CacheStats(hitCount.get(), missCount.get(), loadSuccessCount.get(), loadExceptionCount.get(),
+                              totalLoadTime.get(), evictionCount);
+    }
+}
@@ -0,0 +1,361 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.thucydides.core.model.Story;
+import net.thucydides.core.model.TestOutcome;
+import net.thucydides.core.model.TestResult;
+import net.thucydides.core.model.TestStep;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.LatestSchedule;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.ScheduleHistory;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.TestStepDefinition;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Turns what has been read from JIRA and Zephyr into manual test records and test outcomes.
+ * Nothing here goes back to the server, so the conversion can be measured and tested on its own.
+ */
+class ManualTestConverter {
+
+    static final Map<String, TestResult> DEFAULT_STATUS_RESULTS =
+            ImmutableMap.<String, TestResult>builder()
+                        .put("PASS", TestResult.SUCCESS)
+                        .put("FAIL", TestResult.FAILURE)
+                        .put("WIP", TestResult.PENDING)
+                        .put("BLOCKED", TestResult.SKIPPED)
+                        .put("UNEXECUTED", TestResult.IGNORED)
+                        .put("DESCOPED", TestResult.IGNORED)
+                        .build();
+
+    /**
+     * Steps have a status list of their own in Zephyr, separate from the execution statuses, and step results
+     * only give the status id. These are the built-in step statuses, used until Zephyr's own list has been read.
+     */
+    static final Map<String, String> DEFAULT_STEP_STATUS_NAMES = ImmutableMap.of("1", "PASS",
+                                                                                 "2", "FAIL",
+                                                                                 "3", "WIP",
+                                                                                 "4", "BLOCKED",
+                                                                                 "-1", "UNEXECUTED");
+
+    private final Map<String, TestResult> statusResults;
+    private final Map<String, TestResult> statusResultsById;
+    private final StatusTable statusesByName;
+    private final Map<String, TestResult> stepStatusResultsById;
+    private volatile StatusTable stepStatuses;
+    private final AtomicReference<StatusTable> executionStatuses = new AtomicReference<>();
+    private volatile ZephyrDateParser dateParser;
+
+    ManualTestConverter() {
+        this(DEFAULT_STATUS_RESULTS);
+    }
+
+    ManualTestConverter(Map<String, TestResult> statusResults) {
+        this(statusResults, ImmutableMap.<String, TestResult>of(), ImmutableMap.<String, TestResult>of());
+    }
+
+    /**
+     * @param statusResults         the test result for each Zephyr status name, of executions and steps alike;
+     *                              any other status is pending
+     * @param statusResultsById     the test result for execution status ids that are mapped whatever their name
+     * @param stepStatusResultsById the test result for step status ids that are mapped whatever their name
+     */
+    ManualTestConverter(Map<String, TestResult> statusResults,
+                        Map<String, TestResult> statusResultsById,
+                        Map<String, TestResult> stepStatusResultsById) {
+        this.statusResults = ImmutableMap.copyOf(statusResults);
+        this.statusResultsById = ImmutableMap.copyOf(statusResultsById);
+        this.stepStatusResultsById = ImmutableMap.copyOf(stepStatusResultsById);
+        this.statusesByName = StatusTable.byName(statusResults, statusResultsById);
+        this.stepStatuses = StatusTable.from(DEFAULT_STEP_STATUS_NAMES, statusResults, stepStatusResultsById);
+    }
+
+    /**
+     * The built-in status names, along with custom ones that are added to them or replace them.
+     */
+    static Map<String, TestResult> defaultStatusResultsWith(Map<String, TestResult> customStatusResults) {
+        Map<String, TestResult> statusResults = Maps.newHashMap(DEFAULT_STATUS_RESULTS);
+        statusResults.putAll(customStatusResults);
+        return statusResults;
+    }
+
+    /**
+     * Forgets the execution statuses of the previous load. The first status map read in the new load
+     * is turned into the status table that the rest of the load uses.
+     */
+    public void startLoad() {
+        executionStatuses.set(null);
+    }
+
+    /**
+     * Maps step results through Zephyr's own list of step statuses, custom ones included, from now on.
+     */
+    public void useStepStatuses(Map<String, String> stepStatusNames) {
+        stepStatuses = StatusTable.from(stepStatusNames, statusResults, stepStatusResultsById);
+    }
+
+    /**
+     * Once the statuses are known, schedule responses can be read without their status maps.
+     */
+    public boolean knowsExecutionStatuses() {
+        return executionStatuses.get() != null;
+    }
+
+    /**
+     * A manual test record with the result of each step, taken from the step statuses of its latest execution.
+     * Without any step statuses, the steps all take the result of the execution.
+     */
+    public ManualTestRecord manualTestRecordFrom(IssueSummary issue,
+                                                 List<IssueSummary> associatedIssues,
+                                                 TestExecutionRecord executionRecord,
+                                                 List<TestStepDefinition> steps,
+                                                 Map<Long, String> stepStatuses) {
+        List<Long> stepIds = Lists.newArrayListWithCapacity(steps.size());
+        List<String> stepDescriptions = Lists.newArrayListWithCapacity(steps.size());
+        for(TestStepDefinition step : steps) {
+            stepIds.add(step.id);
+            stepDescriptions.add(step.description);
+        }
+        return new ManualTestRecord(issue.getId(),
+                                    issue.getKey(),
+                                    issue.getSummary(),
+                                    issue.getRendered().getDescription(),
+                                    keysOf(associatedIssues),
+                                    storyNameAssociatedByLabels(associatedIssues),
+                                    executionRecord,
+                                    stepIds,
+                                    stepDescriptions,
+                                    stepResultsFor(stepIds, stepStatuses, executionRecord));
+    }
+
+    /**
+     * A manual test record brought up to date with a newer execution, and the step statuses of that execution.
+     */
+    public ManualTestRecord withLatestExecution(ManualTestRecord record,
+                                                TestExecutionRecord executionRecord,
+                                                Map<Long, String> stepStatuses) {
+        return record.withExecutionRecord(executionRecord,
+                                          stepResultsFor(record.stepIds, stepStatuses, executionRecord));
+    }
+
+    private List<TestResult> stepResultsFor(List<Long> stepIds,
+                                            Map<Long, String> stepStatuses,
+                                            TestExecutionRecord executionRecord) {
+        if (stepStatuses.isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<TestResult> stepResults = Lists.newArrayListWithCapacity(stepIds.size());
+        for(Long stepId : stepIds) {
+            stepResults.add(stepResultFor(stepStatuses.get(stepId), executionRecord));
+        }
+        return stepResults;
+    }
+
+    public TestOutcome outcomeFrom(ManualTestRecord record) {
+        TestOutcome outcome = TestOutcome.forTestInStory("Manual test - " + record.summary + " (" + record.key + ")",
+                storyFrom(record));
+        outcome.setDescription(record.description);
+        outcome = outcome.withIssues(record.associatedIssueKeys);
+
+        outcome.clearStartTime();
+
+        addTestStepsTo(outcome, record);
+
+        if (noStepsAreDefined(outcome)) {
+            updateOverallTestOutcome(outcome, record.executionRecord);
+        }
+        return outcome.asManualTest();
+    }
+
+    /**
+     * The execution record for the latest schedule of a test, as read from the schedule endpoint.
+     */
+    public TestExecutionRecord executionRecordFrom(LatestSchedule latestSchedule) {
+        if (latestSchedule.isScheduled) {
+            String executionStatus = latestSchedule.executionStatus;
+            DateTime executionDate = executionDateFor(latestSchedule.executedOn);
+            boolean descoped = (executionStatus.equalsIgnoreCase("descoped"));
+            TestResult testResult = executionStatusesFrom(latestSchedule.statusNames)
+                                        .resultOf(executionStatus, latestSchedule.statusName);
+            return new TestExecutionRecord(testResult, executionDate, descoped,
+                                           executionIdFrom(latestSchedule.executionId));
+        } else {
+            return unexecutedRecord();
+        }
+    }
+
+    /**
+     * The execution record for an execution found by a ZQL search.
+     */
+    public TestExecutionRecord executionRecordFrom(JSONObject execution) throws JSONException {
+        JSONObject status = execution.getJSONObject("status");
+        String executionStatus = status.getString("id");
+        DateTime executionDate = executionDateFor(execution);
+        boolean descoped = (executionStatus.equalsIgnoreCase("descoped"));
+        TestResult testResult = executionStatuses().resultOf(executionStatus, status.getString("name"));
+        return new TestExecutionRecord(testResult, executionDate, descoped,
+                                       execution.has("id") ? execution.getLong("id") : null);
+    }
+
+    /**
+     * Adds every schedule of a test to the execution history.
+     */
+    public void addSchedulesTo(ExecutionHistory history, long issueId, ScheduleHistory scheduleHistory) {
+        StatusTable statuses = executionStatusesFrom(scheduleHistory.statusNames);
+        for(Map.Entry<String, String> status : scheduleHistory.statusNames.entrySet()) {
+            history.registerStatus(ExecutionHistory.statusIdFrom(status.getKey()), status.getValue(),
+                                   statuses.resultOf(status.getKey(), status.getValue()));
+        }
+        for(Map<String, String> schedule : scheduleHistory.schedules) {
+            Long executionId = executionIdFrom(schedule.get("id"));
+            history.add(issueId,
+                        (executionId != null) ? executionId : 0,
+                        ExecutionHistory.statusIdFrom(schedule.get("executionStatus")),
+                        executionTimeFor(schedule.get("executedOn")));
+        }
+    }
+
+    /**
+     * Adds an execution found by a ZQL search to the execution history.
+     */
+    public void addExecutionTo(ExecutionHistory history, JSONObject execution) throws JSONException {
+        JSONObject status = execution.getJSONObject("status");
+        byte statusId = ExecutionHistory.statusIdFrom(status.getString("id"));
+        history.registerStatus(statusId, status.getString("name"),
+                               executionStatuses().resultOf(status.getString("id"), status.getString("name")));
+        history.add(execution.getLong("issueId"),
+                    execution.optLong("id"),
+                    statusId,
+                    executionTimeFor(execution.has("executedOn") ? execution.getString("executedOn") : null));
+    }
+
+    public TestExecutionRecord unexecutedRecord() {
+        return new TestExecutionRecord(TestResult.PENDING, null, false);
+    }
+
+    private Long executionIdFrom(String executionId) {
+        if (executionId == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(executionId);
+        } catch (NumberFormatException notAnExecutionId) {
+            return null;
+        }
+    }
+
+    private DateTime executionDateFor(JSONObject latestSchedule) throws JSONException {
+        return executionDateFor(latestSchedule.has("executedOn") ? latestSchedule.getString("executedOn") : null);
+    }
+
+    private DateTime executionDateFor(String executedOn) {
+        if (executedOn != null) {
+            return parser().parse(executedOn);
+        } else {
+            return null;
+        }
+    }
+
+    private long executionTimeFor(String executedOn) {
+        DateTime executionDate = executionDateFor(executedOn);
+        return (executionDate != null) ? executionDate.getMillis() : ExecutionHistory.NOT_EXECUTED;
+    }
+
+    /**
+     * The parser is shared by all the worker threads, and only replaced when the day changes.
+     */
+    private ZephyrDateParser parser() {
+        ZephyrDateParser parser = dateParser;
+        if ((parser == null) || !parser.isRelativeTo(LocalDate.now())) {
+            parser = new ZephyrDateParser(new DateTime());
+            dateParser = parser;
+        }
+        return parser;
+    }
+
+    /**
+     * The status table of the current load, built from the first status map to come along.
+     * If several threads build one at the same time, they all go on to use the one that was stored first.
+     */
+    private StatusTable executionStatusesFrom(Map<String, String> statusNames) {
+        StatusTable statuses = executionStatuses.get();
+        if (statuses == null && !statusNames.isEmpty()) {
+            executionStatuses.compareAndSet(null, StatusTable.from(statusNames, statusResults, statusResultsById));
+            statuses = executionStatuses.get();
+        }
+        return (statuses != null) ? statuses : statusesByName;
+    }
+
+    /**
+     * ZQL searches give the status of each execution rather than a status map, so until a schedule response
+     * has been read, the statuses are looked up by name.
+     */
+    private StatusTable executionStatuses() {
+        StatusTable statuses = executionStatuses.get();
+        return (statuses != null) ? statuses : statusesByName;
+    }
+
+    /**
+     * A step that has no result of its own in the execution takes the result of the execution.
+     */
+    private TestResult stepResultFor(String stepStatus, TestExecutionRecord executionRecord) {
+        if (!stepStatuses.contains(stepStatus)) {
+            return executionRecord.testResult;
+        }
+        return stepStatuses.resultOf(stepStatus, null);
+    }
+
+    private void updateOverallTestOutcome(TestOutcome outcome, TestExecutionRecord testExecutionRecord) {
+        outcome.setAnnotatedResult(testExecutionRecord.testResult);
+        if (testExecutionRecord.executionDate != null) {
+            outcome.setStartTime(testExecutionRecord.executionDate);
+        }
+    }
+
+    private boolean noStepsAreDefined(TestOutcome outcome) {
+        return outcome.getTestSteps().isEmpty();
+    }
+
+    private void addTestStepsTo(TestOutcome outcome, ManualTestRecord record) {
+        TestExecutionRecord testExecutionRecord = record.executionRecord;
+        for(int step = 0; step < record.stepDescriptions.size(); step++) {
+            TestResult stepResult = record.hasStepResults() ? record.stepResults.get(step) : testExecutionRecord.testResult;
+            outcome.recordStep(TestStep.forStepCalled(record.stepDescriptions.get(step)).withResult(stepResult));
+            if (testExecutionRecord.executionDate != null) {
+                outcome.setStartTime(testExecutionRecord.executionDate);
+            }
+        }
+    }
+
+    private List<String> keysOf(List<IssueSummary> associatedIssues) {
+        List<String> issueKeys = Lists.newArrayList();
+        for(IssueSummary issue : associatedIssues) {
+            issueKeys.add(issue.getKey());
+        }
+        return issueKeys;
+    }
+
+    private Story storyFrom(ManualTestRecord record) {
+        if (record.associatedStoryName.isPresent()) {
+            return Story.called(record.associatedStoryName.get());
+        }
+        return Story.called("Manual tests");
+    }
+
+    private Optional<String> storyNameAssociatedByLabels(List<IssueSummary> associatedIssues) {
+        if (!associatedIssues.isEmpty()) {
+            return Optional.of(associatedIssues.get(0).getSummary());
+        }
+        return Optional.absent();
+    }
+}
@@ -0,0 +1,66 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The JQL that picks out a set of manual tests to load, and the project they belong to when they come from
+ * a single project. Executions can only be searched for project by project, so loading executions in bulk
+ * and incremental syncs need the project.
+ */
+class ManualTestQuery {
+
+    private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+    private final String jql;
+    private final Optional<String> project;
+
+    private ManualTestQuery(String jql, Optional<String> project) {
+        this.jql = jql;
+        this.project = project;
+    }
+
+    public static ManualTestQuery forProject(String project) {
+        return new ManualTestQuery("type=Test and project=" + project, Optional.of(project));
+    }
+
+    /**
+     * The query is combined with the issue type, so an ORDER BY clause, which has to come last, is put back
+     * after the combined condition.
+     */
+    public static ManualTestQuery forJQL(String jql) {
+        int orderByStart = orderByStartIn(jql);
+        String condition = jql.substring(0, orderByStart).trim();
+        String ordering = jql.substring(orderByStart).trim();
+        String testCondition = condition.isEmpty() ? "type=Test" : "type=Test and (" + condition + ")";
+        return new ManualTestQuery(ordering.isEmpty() ? testCondition : testCondition + " " + ordering,
+                                   Optional.<String>absent());
+    }
+
+    /**
+     * Where the last ORDER BY clause starts, or the end of the query if it has none.
+     */
+    private static int orderByStartIn(String jql) {
+        Matcher orderBy = ORDER_BY.matcher(jql);
+        int orderByStart = jql.length();
+        while (orderBy.find()) {
+            orderByStart = orderBy.start();
+        }
+        return orderByStart;
+    }
+
+    public String getJQL() {
+        return jql;
+    }
+
+    public Optional<String> getProject() {
+        return project;
+    }
+
+    @Override
+    public String toString() {
+        return jql;
+    }
+}
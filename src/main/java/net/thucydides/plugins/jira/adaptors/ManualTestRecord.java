@@ -0,0 +1,86 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import net.thucydides.core.model.TestResult;
+
+import java.util.List;
+
+/**
+ * Everything the adaptor reads from JIRA and Zephyr about one manual test:
+ * the issue itself, the issues its labels refer to, its latest execution and its test steps.
+ * The step ids and step results, when Zephyr has them, are in the same order as the steps; otherwise there are none,
+ * and every step takes the result of the execution as a whole.
+ */
+class ManualTestRecord {
+    public final Long id;
+    public final String key;
+    public final String summary;
+    public final String description;
+    public final List<String> associatedIssueKeys;
+    public final Optional<String> associatedStoryName;
+    public final TestExecutionRecord executionRecord;
+    public final List<Long> stepIds;
+    public final List<String> stepDescriptions;
+    public final List<TestResult> stepResults;
+
+    ManualTestRecord(Long id,
+                     String key,
+                     String summary,
+                     String description,
+                     List<String> associatedIssueKeys,
+                     Optional<String> associatedStoryName,
+                     TestExecutionRecord executionRecord,
+                     List<String> stepDescriptions) {
+        this(id, key, summary, description, associatedIssueKeys, associatedStoryName, executionRecord,
+             stepDescriptions, ImmutableList.<TestResult>of());
+    }
+
+    ManualTestRecord(Long id,
+                     String key,
+                     String summary,
+                     String description,
+                     List<String> associatedIssueKeys,
+                     Optional<String> associatedStoryName,
+                     TestExecutionRecord executionRecord,
+                     List<String> stepDescriptions,
+                     List<TestResult> stepResults) {
+        this(id, key, summary, description, associatedIssueKeys, associatedStoryName, executionRecord,
+             ImmutableList.<Long>of(), stepDescriptions, stepResults);
+    }
+
+    ManualTestRecord(Long id,
+                     String key,
+                     String summary,
+                     String description,
+                     List<String> associatedIssueKeys,
+                     Optional<String> associatedStoryName,
+                     TestExecutionRecord executionRecord,
+                     List<Long> stepIds,
+                     List<String> stepDescriptions,
+                     List<TestResult> stepResults) {
+        this.id = id;
+        this.key = key;
+        this.summary = summary;
+        this.description = description;
+        this.associatedIssueKeys = ImmutableList.copyOf(associatedIssueKeys);
+        this.associatedStoryName = associatedStoryName;
+        this.executionRecord = executionRecord;
+        this.stepIds = ImmutableList.copyOf(stepIds);
+        this.stepDescriptions = ImmutableList.copyOf(stepDescriptions);
+        this.stepResults = ImmutableList.copyOf(stepResults);
+    }
+
+    public boolean hasStepResults() {
+        return !stepResults.isEmpty();
+    }
+
+    /**
+     * The same test, with a newer execution and the step results that go with it.
+     */
+    public ManualTestRecord withExecutionRecord(TestExecutionRecord newExecutionRecord,
+                                                List<TestResult> newStepResults) {
+        return new ManualTestRecord(id, key, summary, description, associatedIssueKeys, associatedStoryName,
+                                    newExecutionRecord, stepIds, stepDescriptions, newStepResults);
+    }
+}
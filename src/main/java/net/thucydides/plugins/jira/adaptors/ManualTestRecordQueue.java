@@ -0,0 +1,78 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands the records of a load running on another thread over to a handler, as they are read.
+ * The queue only holds a few records: once it is full, the load waits for the handler to catch up,
+ * so a load that is ahead of the handler never holds more than that in memory.
+ */
+class ManualTestRecordQueue implements ResultHandler<ManualTestRecord> {
+
+    private static final Optional<ManualTestRecord> END_OF_LOAD = Optional.absent();
+
+    private final BlockingQueue<Optional<ManualTestRecord>> records;
+    private volatile Throwable failure;
+
+    ManualTestRecordQueue(int capacity) {
+        this.records = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void handle(ManualTestRecord record) throws IOException {
+        try {
+            records.put(Optional.of(record));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to hand over Zephyr manual tests");
+        }
+    }
+
+    /**
+     * Called by the load once its last record has been queued.
+     */
+    public void finished() {
+        try {
+            records.put(END_OF_LOAD);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by the load instead of finished() when it goes wrong. The handler gets the records queued
+     * before the failure, and then the failure itself.
+     */
+    public void failed(Throwable failure) {
+        this.failure = failure;
+        finished();
+    }
+
+    /**
+     * Passes every record of the load to the handler, on the calling thread, until the load is over.
+     */
+    public void drainTo(ResultHandler<ManualTestRecord> handler) throws IOException {
+        for(Optional<ManualTestRecord> record = nextRecord(); record.isPresent(); record = nextRecord()) {
+            handler.handle(record.get());
+        }
+        if (failure != null) {
+            Throwables.propagateIfInstanceOf(failure, IOException.class);
+            throw Throwables.propagate(failure);
+        }
+    }
+
+    private Optional<ManualTestRecord> nextRecord() {
+        try {
+            return records.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading Zephyr manual tests", e);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import net.thucydides.core.model.TestResult;
+import org.joda.time.DateTime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compressed binary copy of the manual test records read from JIRA and Zephyr,
+ * so that report builds can reuse them without querying the server again.
+ * The file starts with an uncompressed marker and format version, so that files the adaptor did not write,
+ * or wrote in an older format, are recognised before anything is decompressed.
+ * The header also names the source of the records, such as the server, the queries and the status mapping,
+ * so that a snapshot of another source is treated as out of date.
+ * When given a directory, the snapshot is kept in a file of its own inside it.
+ */
+class ManualTestSnapshot {
+
+    static final String FILE_NAME = "zephyr-manual-tests.snapshot";
+
+    private static final int MARKER = 0x5A4D5453;    // "ZMTS"
+    private static final int FORMAT_VERSION = 6;
+    private static final int NO_VALUE = -1;
+
+    private final File file;
+    private final String source;
+
+    ManualTestSnapshot(File file, String source) {
+        this.file = file.isDirectory() ? new File(file, FILE_NAME) : file;
+        this.source = source;
+    }
+
+    /**
+     * A snapshot can be used if it was written by this version of the adaptor, from the same source,
+     * within the maximum age.
+     */
+    public boolean isYoungerThan(long maxAgeInMillis) {
+        Optional<Long> syncedAt = syncedAt();
+        return syncedAt.isPresent() && (System.currentTimeMillis() - syncedAt.get() <= maxAgeInMillis);
+    }
+
+    /**
+     * When the load that wrote this snapshot started, if there is a snapshot of this source
+     * that this version of the adaptor can read.
+     */
+    public Optional<Long> syncedAt() {
+        if (!file.isFile() || formatVersion() != FORMAT_VERSION || !source.equals(sourceInHeader())) {
+            return Optional.absent();
+        }
+        try (DataInputStream input = openForReading()) {
+            return Optional.of(input.readLong());
+        } catch (IOException unreadableSnapshot) {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * A snapshot is only ever written in place of another snapshot, never over a file the adaptor did not write.
+     */
+    public boolean canBeWritten() {
+        return !file.exists() || (file.isFile() && formatVersion() != NO_VALUE);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void readRecords(ResultHandler<ManualTestRecord> handler) throws IOException {
+        try (DataInputStream input = openForReading()) {
+            input.readLong();
+            while (input.readBoolean()) {
+                handler.handle(readRecordFrom(input));
+            }
+        }
+    }
+
+    /**
+     * Records are written to a temporary file, which only replaces the snapshot once it is complete.
+     */
+    public Writer writer() throws IOException {
+        return writer(System.currentTimeMillis());
+    }
+
+    public Writer writer(long syncedAt) throws IOException {
+        return new Writer(syncedAt);
+    }
+
+    class Writer implements Closeable {
+        private final File temporaryFile;
+        private final DataOutputStream output;
+        private boolean committed;
+
+        Writer(long syncedAt) throws IOException {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create snapshot directory " + directory);
+            }
+            temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+            FileOutputStream fileOutput = new FileOutputStream(temporaryFile);
+            DataOutputStream header = new DataOutputStream(fileOutput);
+            header.writeInt(MARKER);
+            header.writeInt(FORMAT_VERSION);
+            header.writeUTF(source);
+            header.flush();
+            output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fileOutput)));
+            output.writeLong(syncedAt);
+        }
+
+        public void write(ManualTestRecord record) throws IOException {
+            output.writeBoolean(true);
+            writeRecordTo(output, record);
+        }
+
+        public void commit() throws IOException {
+            output.writeBoolean(false);
+            output.close();
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                output.close();
+                Files.deleteIfExists(temporaryFile.toPath());
+            }
+        }
+    }
+
+    /**
+     * The format version of a snapshot file, or NO_VALUE if the file is not a snapshot at all.
+     */
+    private int formatVersion() {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return (input.readInt() == MARKER) ? input.readInt() : NO_VALUE;
+        } catch (IOException notASnapshot) {
+            return NO_VALUE;
+        }
+    }
+
+    private String sourceInHeader() {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            input.readInt();
+            input.readInt();
+            return input.readUTF();
+        } catch (IOException unreadableHeader) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the compressed part of the snapshot, after the marker, format version and source.
+     */
+    private DataInputStream openForReading() throws IOException {
+        FileInputStream fileInput = new FileInputStream(file);
+        try {
+            DataInputStream header = new DataInputStream(fileInput);
+            header.readInt();
+            header.readInt();
+            header.readUTF();
+            return new DataInputStream(new BufferedInputStream(new GZIPInputStream(fileInput)));
+        } catch (IOException e) {
+            fileInput.close();
+            throw e;
+        }
+    }
+
+    private void writeRecordTo(DataOutputStream output, ManualTestRecord record) throws IOException {
+        output.writeLong(record.id);
+        writeString(output, record.key);
+        writeString(output, record.summary);
+        writeString(output, record.description);
+        writeStrings(output, record.associatedIssueKeys);
+        writeString(output, record.associatedStoryName.orNull());
+        writeString(output, record.executionRecord.testResult.name());
+        output.writeBoolean(record.executionRecord.executionDate != null);
+        if (record.executionRecord.executionDate != null) {
+            output.writeLong(record.executionRecord.executionDate.getMillis());
+        }
+        output.writeBoolean(record.executionRecord.isDescoped);
+        output.writeBoolean(record.executionRecord.executionId != null);
+        if (record.executionRecord.executionId != null) {
+            output.writeLong(record.executionRecord.executionId);
+        }
+        writeLongs(output, record.stepIds);
+        writeStrings(output, record.stepDescriptions);
+        writeStrings(output, namesOf(record.stepResults));
+    }
+
+    private ManualTestRecord readRecordFrom(DataInputStream input) throws IOException {
+        Long id = input.readLong();
+        String key = readString(input);
+        String summary = readString(input);
+        String description = readString(input);
+        List<String> associatedIssueKeys = readStrings(input);
+        Optional<String> associatedStoryName = Optional.fromNullable(readString(input));
+        TestResult testResult = TestResult.valueOf(readString(input));
+        DateTime executionDate = input.readBoolean() ? new DateTime(input.readLong()) : null;
+        boolean descoped = input.readBoolean();
+        Long executionId = input.readBoolean() ? input.readLong() : null;
+        List<Long> stepIds = readLongs(input);
+        List<String> stepDescriptions = readStrings(input);
+        List<TestResult> stepResults = testResultsNamed(readStrings(input));
+        return new ManualTestRecord(id, key, summary, description, associatedIssueKeys, associatedStoryName,
+                                    new TestExecutionRecord(testResult, executionDate, descoped, executionId),
+                                    stepIds, stepDescriptions, stepResults);
+    }
+
+    private List<String> namesOf(List<TestResult> testResults) {
+        List<String> names = Lists.newArrayListWithCapacity(testResults.size());
+        for(TestResult testResult : testResults) {
+            names.add(testResult.name());
+        }
+        return names;
+    }
+
+    private List<TestResult> testResultsNamed(List<String> names) {
+        List<TestResult> testResults = Lists.newArrayListWithCapacity(names.size());
+        for(String name : names) {
+            testResults.add(TestResult.valueOf(name));
+        }
+        return testResults;
+    }
+
+    private void writeStrings(DataOutputStream output, List<String> values) throws IOException {
+        output.writeInt(values.size());
+        for(String value : values) {
+            writeString(output, value);
+        }
+    }
+
+    private List<String> readStrings(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        List<String> values = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(input));
+        }
+        return values;
+    }
+
+    private void writeLongs(DataOutputStream output, List<Long> values) throws IOException {
+        output.writeInt(values.size());
+        for(Long value : values) {
+            output.writeLong(value);
+        }
+    }
+
+    private List<Long> readLongs(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        List<Long> values = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            values.add(input.readLong());
+        }
+        return values;
+    }
+
+    private void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(NO_VALUE);
+        } else {
+            byte[] bytes = value.getBytes(Charsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length == NO_VALUE) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
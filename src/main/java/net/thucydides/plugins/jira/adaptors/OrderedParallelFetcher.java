@@ -0,0 +1,112 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a blocking fetch for each item on a bounded pool of worker threads,
+ * and returns the results in the same order as the items.
+ * Items are only read from the source as workers become free, so the source can be a lazy, paged iterator.
+ */
+class OrderedParallelFetcher {
+
+    private static final int QUEUED_FETCHES_PER_WORKER = 2;
+
+    private final int parallelism;
+    private final boolean threadPerFetch;
+
+    /**
+     * With a pool, the parallelism is the number of workers, and a few fetches per worker are queued.
+     * With a thread per fetch, each fetch gets a thread of its own as soon as it is started, and the parallelism
+     * is the number of fetches started ahead of the handler, which is as many as can be running at once.
+     */
+    OrderedParallelFetcher(int parallelism, boolean threadPerFetch) {
+        this.parallelism = parallelism;
+        this.threadPerFetch = threadPerFetch;
+    }
+
+    /**
+     * Fetches each item and passes the results to the handler on the calling thread.
+     * Only a bounded number of fetches are started ahead of the handler, so a slow handler holds back the fetching.
+     */
+    public <T, R> void fetchInOrder(Iterator<T> items, Function<T, R> fetch, ResultHandler<R> handler) throws IOException {
+        ListeningExecutorService executor = workerPool();
+        try {
+            Deque<ListenableFuture<R>> pendingResults = new ArrayDeque<>();
+            while (items.hasNext()) {
+                if (pendingResults.size() >= maximumPendingFetches()) {
+                    handler.handle(resultOf(pendingResults.removeFirst()));
+                }
+                pendingResults.addLast(executor.submit(fetchTask(items.next(), fetch)));
+            }
+            while (!pendingResults.isEmpty()) {
+                handler.handle(resultOf(pendingResults.removeFirst()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int maximumPendingFetches() {
+        return threadPerFetch ? parallelism : parallelism * QUEUED_FETCHES_PER_WORKER;
+    }
+
+    private ListeningExecutorService workerPool() {
+        if (threadPerFetch) {
+            return MoreExecutors.listeningDecorator(threadPerTaskExecutor());
+        }
+        if (parallelism == 1) {
+            return MoreExecutors.sameThreadExecutor();
+        }
+        return MoreExecutors.listeningDecorator(
+                Executors.newFixedThreadPool(parallelism,
+                        new ThreadFactoryBuilder().setNameFormat("zephyr-fetch-%d").setDaemon(true).build()));
+    }
+
+    /**
+     * Virtual threads when the JVM has them (Java 21 and later), and otherwise a new daemon thread for each fetch.
+     */
+    private static ExecutorService threadPerTaskExecutor() {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException noVirtualThreads) {
+            return Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("zephyr-fetch-%d").setDaemon(true).build());
+        }
+    }
+
+    private <T, R> Callable<R> fetchTask(final T item, final Function<T, R> fetch) {
+        return new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return fetch.apply(item);
+            }
+        };
+    }
+
+    private <R> R resultOf(ListenableFuture<R> pendingResult) {
+        try {
+            return pendingResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching Zephyr tests", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads the results of a JQL query one page at a time, using startAt and maxResults.
+ * The next page is requested in the background as soon as the current one is handed out,
+ * so callers can work on one page while the next one is on its way.
+ */
+class PagedIssueSearch implements Iterator<List<IssueSummary>>, Closeable {
+
+    private static final String RENDERED_DESCRIPTION_FIELD = "Description";
+
+    private final ZephyrRestClient restClient;
+    private final String jql;
+    private final int pageSize;
+    private final ListeningExecutorService pageFetcher;
+
+    private ListenableFuture<JSONObject> nextPage;
+
+    PagedIssueSearch(ZephyrRestClient restClient, String jql, int pageSize) {
+        this.restClient = restClient;
+        this.jql = jql;
+        this.pageSize = pageSize;
+        this.pageFetcher = MoreExecutors.listeningDecorator(
+                Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("jira-search-%d").setDaemon(true).build()));
+        this.nextPage = fetchPageStartingAt(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextPage != null;
+    }
+
+    @Override
+    public List<IssueSummary> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            JSONObject page = resultOf(nextPage);
+            JSONArray issues = page.getJSONArray("issues");
+            int nextStart = page.getInt("startAt") + issues.length();
+            nextPage = (issues.length() > 0 && nextStart < page.getInt("total")) ? fetchPageStartingAt(nextStart) : null;
+            return issueSummariesIn(issues);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Failed to read JIRA search results for " + jql, e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        pageFetcher.shutdownNow();
+    }
+
+    private ListenableFuture<JSONObject> fetchPageStartingAt(final int startAt) {
+        return pageFetcher.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws JSONException {
+                return restClient.search(jql, startAt, pageSize);
+            }
+        });
+    }
+
+    private JSONObject resultOf(ListenableFuture<JSONObject> page) throws JSONException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading JIRA search results", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), JSONException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * The issues in the "issues" array of a search response.
+     */
+    static List<IssueSummary> issueSummariesIn(JSONArray issues) throws JSONException {
+        List<IssueSummary> issueSummaries = Lists.newArrayList();
+        for (int i = 0; i < issues.length(); i++) {
+            issueSummaries.add(issueSummaryFrom(issues.getJSONObject(i)));
+        }
+        return ImmutableList.copyOf(issueSummaries);
+    }
+
+    static IssueSummary issueSummaryFrom(JSONObject issue) throws JSONException {
+        JSONObject fields = issue.getJSONObject("fields");
+        return new IssueSummary(uriFrom(issue),
+                                issue.getLong("id"),
+                                issue.getString("key"),
+                                fields.getString("summary"),
+                                fields.optString("description", null),
+                                renderedFieldValuesFrom(issue),
+                                fields.getJSONObject("issuetype").getString("name"),
+                                labelsIn(fields),
+                                fixVersionsIn(fields),
+                                Maps.<String, Object>newHashMap());
+    }
+
+    private static URI uriFrom(JSONObject issue) throws JSONException {
+        try {
+            return new URI(issue.getString("self"));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Self field not a valid URL");
+        }
+    }
+
+    private static Map<String, String> renderedFieldValuesFrom(JSONObject issue) throws JSONException {
+        Map<String, String> renderedFieldValues = Maps.newHashMap();
+        JSONObject renderedFields = issue.optJSONObject("renderedFields");
+        if ((renderedFields != null) && !renderedFields.isNull("description")) {
+            renderedFieldValues.put(RENDERED_DESCRIPTION_FIELD, renderedFields.getString("description"));
+        }
+        return renderedFieldValues;
+    }
+
+    private static List<String> labelsIn(JSONObject fields) throws JSONException {
+        List<String> labels = Lists.newArrayList();
+        JSONArray labelArray = fields.optJSONArray("labels");
+        if (labelArray != null) {
+            for (int i = 0; i < labelArray.length(); i++) {
+                labels.add(labelArray.getString(i));
+            }
+        }
+        return labels;
+    }
+
+    private static List<String> fixVersionsIn(JSONObject fields) throws JSONException {
+        List<String> fixVersions = Lists.newArrayList();
+        JSONArray versionArray = fields.optJSONArray("fixVersions");
+        if (versionArray != null) {
+            for (int i = 0; i < versionArray.length(); i++) {
+                fixVersions.add(versionArray.getJSONObject(i).getString("name"));
+            }
+        }
+        return fixVersions;
+    }
+}
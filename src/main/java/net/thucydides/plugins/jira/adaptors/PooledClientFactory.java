@@ -0,0 +1,82 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnector;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.filter.HttpBasicAuthFilter;
+import org.glassfish.jersey.spi.RequestExecutorsProvider;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the Jersey client that all of an adaptor's requests share. Connections are kept alive in a pool,
+ * so parallel requests to the same server reuse their sockets rather than connecting again each time.
+ */
+class PooledClientFactory {
+
+    private static final long IDLE_THREAD_TIMEOUT_IN_SECONDS = 30;
+
+    private final ZephyrConfiguration zephyrConfiguration;
+
+    PooledClientFactory(ZephyrConfiguration zephyrConfiguration) {
+        this.zephyrConfiguration = zephyrConfiguration;
+    }
+
+    /**
+     * The daemon threads that send the client's asynchronous requests. They stop when they have been idle for a while.
+     * The Apache connector blocks, so each request in flight holds a thread until its response is read, and there are
+     * only as many threads as requests that can be in flight: no more than the permits or the connections allow.
+     */
+    public ExecutorService newAsyncRequestExecutor() {
+        int threads = Math.min(zephyrConfiguration.getMaxConcurrentRequests(),
+                               zephyrConfiguration.getMaxConnectionsPerRoute());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                IDLE_THREAD_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("zephyr-http-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Uses the HttpClient 4.2 connection pool, the only kind the Jersey 2.3.1 Apache connector accepts.
+     */
+    @SuppressWarnings("deprecation")
+    public Client newClient(String user, String password, ExecutorService asyncRequestExecutor) {
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(zephyrConfiguration.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(zephyrConfiguration.getMaxConnectionsPerRoute());
+
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+        clientConfig.property(ClientProperties.CONNECT_TIMEOUT, zephyrConfiguration.getConnectTimeoutInMillis());
+        clientConfig.property(ClientProperties.READ_TIMEOUT, zephyrConfiguration.getReadTimeoutInMillis());
+        clientConfig.register(new AsyncRequestExecutorProvider(asyncRequestExecutor));
+        clientConfig.register(new HttpBasicAuthFilter(user, password));
+        clientConfig.connector(new ApacheConnector(clientConfig));
+        return ClientBuilder.newClient(clientConfig);
+    }
+
+    /**
+     * Jersey 2.3.1 ignores ASYNC_THREADPOOL_SIZE, and otherwise sends asynchronous requests on non-daemon threads.
+     */
+    private static class AsyncRequestExecutorProvider implements RequestExecutorsProvider {
+        private final ExecutorService executor;
+
+        AsyncRequestExecutorProvider(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public ExecutorService getRequestingExecutor() {
+            return executor;
+        }
+    }
+}
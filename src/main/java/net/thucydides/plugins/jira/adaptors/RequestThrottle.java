@@ -0,0 +1,129 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.client.utils.DateUtils;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the requests made to JIRA, and works out how long to wait before retrying one that the server turned away.
+ * When the server asks for requests to slow down, the configured request rate is halved, then slowly recovers again
+ * as requests succeed; a Retry-After header holds back every request until the time the server asked for.
+ */
+class RequestThrottle {
+
+    private static final double MINIMUM_REQUESTS_PER_SECOND = 1.0;
+    private static final double RECOVERY_PER_SUCCESS = 0.1;
+
+    private final double maximumRequestsPerSecond;
+    private final RateLimiter rateLimiter;
+    private final int maximumRetries;
+    private final long initialBackoffInMillis;
+    private final long maximumBackoffInMillis;
+    private final Random random = new Random();
+
+    private volatile long pausedUntilInMillis;
+
+    RequestThrottle(ZephyrConfiguration zephyrConfiguration) {
+        this.maximumRequestsPerSecond = zephyrConfiguration.getMaxRequestsPerSecond();
+        this.rateLimiter = (maximumRequestsPerSecond > 0) ? RateLimiter.create(maximumRequestsPerSecond) : null;
+        this.maximumRetries = zephyrConfiguration.getMaxRetries();
+        this.initialBackoffInMillis = zephyrConfiguration.getRetryBackoffInMillis();
+        this.maximumBackoffInMillis = zephyrConfiguration.getRetryMaxBackoffInMillis();
+    }
+
+    /**
+     * Waits until the server is ready for another request.
+     */
+    public void acquire() throws InterruptedException {
+        long pause = pausedUntilInMillis - System.currentTimeMillis();
+        if (pause > 0) {
+            TimeUnit.MILLISECONDS.sleep(pause);
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+    }
+
+    /**
+     * Claims a place for a request without waiting. Returns zero if the request can be sent now,
+     * or otherwise how many milliseconds to wait before asking again.
+     */
+    public long tryAcquire() {
+        long pause = pausedUntilInMillis - System.currentTimeMillis();
+        if (pause > 0) {
+            return pause;
+        }
+        if (rateLimiter == null || rateLimiter.tryAcquire()) {
+            return 0;
+        }
+        return Math.max(1, (long) (1000 / rateLimiter.getRate()));
+    }
+
+    public boolean shouldRetry(int attempt) {
+        return attempt < maximumRetries;
+    }
+
+    public void succeeded() {
+        if (rateLimiter != null && rateLimiter.getRate() < maximumRequestsPerSecond) {
+            rateLimiter.setRate(Math.min(maximumRequestsPerSecond, rateLimiter.getRate() + RECOVERY_PER_SUCCESS));
+        }
+    }
+
+    /**
+     * Slows down after the server turned a request away, and returns how long to wait before trying it again.
+     *
+     * @param attempt    how many times the request has already been retried
+     * @param retryAfter the value of the Retry-After header, if the server sent one
+     */
+    public long throttled(int attempt, Optional<String> retryAfter) {
+        if (rateLimiter != null) {
+            rateLimiter.setRate(Math.max(MINIMUM_REQUESTS_PER_SECOND, rateLimiter.getRate() / 2));
+        }
+        Optional<Long> requestedDelay = delayRequestedBy(retryAfter);
+        if (requestedDelay.isPresent()) {
+            long delay = Math.min(requestedDelay.get(), maximumBackoffInMillis);
+            pausedUntilInMillis = Math.max(pausedUntilInMillis, System.currentTimeMillis() + delay);
+            return delay;
+        }
+        return jitteredBackoff(attempt);
+    }
+
+    double getRequestsPerSecond() {
+        return (rateLimiter != null) ? rateLimiter.getRate() : 0;
+    }
+
+    /**
+     * A random delay up to an exponentially growing limit, so that requests throttled together do not retry together.
+     */
+    private long jitteredBackoff(int attempt) {
+        long limit = Math.min(maximumBackoffInMillis, initialBackoffInMillis << Math.min(attempt, 30));
+        return (limit > 0) ? nextLong(limit) + 1 : 0;
+    }
+
+    private synchronized long nextLong(long limit) {
+        return (long) (random.nextDouble() * limit);
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     */
+    private Optional<Long> delayRequestedBy(Optional<String> retryAfter) {
+        if (!retryAfter.isPresent()) {
+            return Optional.absent();
+        }
+        String value = retryAfter.get().trim();
+        try {
+            return Optional.of(TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value))));
+        } catch (NumberFormatException notANumberOfSeconds) {
+            Date retryDate = DateUtils.parseDate(value);
+            if (retryDate != null) {
+                return Optional.of(Math.max(0, retryDate.getTime() - System.currentTimeMillis()));
+            }
+            return Optional.absent();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import java.io.IOException;
+
+/**
+ * Receives results one at a time, in the order in which they were requested.
+ */
+interface ResultHandler<R> {
+    void handle(R result) throws IOException;
+}
@@ -0,0 +1,112 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.collect.ImmutableMap;
+import net.thucydides.core.model.TestResult;
+
+import java.util.Map;
+
+/**
+ * The test result for each of Zephyr's status ids, worked out once from a status map and kept in an array
+ * indexed by status id, so that converting an execution is an array lookup rather than a name lookup.
+ * A table never changes once built, so any number of threads can read it without locking.
+ * Results configured for a status id take precedence over the result for the status name.
+ * Statuses that are not in the table are looked up by name.
+ */
+class StatusTable {
+
+    /**
+     * Zephyr uses -1 for unexecuted, and counts up from 1 for the other statuses.
+     */
+    private static final int FIRST_STATUS_ID = -1;
+    private static final int LAST_STATUS_ID = 1023;
+
+    private final TestResult[] resultsByStatusId;
+    private final Map<String, TestResult> resultsByName;
+
+    private StatusTable(TestResult[] resultsByStatusId, Map<String, TestResult> resultsByName) {
+        this.resultsByStatusId = resultsByStatusId;
+        this.resultsByName = resultsByName;
+    }
+
+    /**
+     * A table that looks statuses up by name, apart from the ones with a result of their own.
+     */
+    public static StatusTable byName(Map<String, TestResult> resultsByName, Map<String, TestResult> resultsById) {
+        return from(ImmutableMap.<String, String>of(), resultsByName, resultsById);
+    }
+
+    public static StatusTable from(Map<String, String> statusNames, Map<String, TestResult> resultsByName) {
+        return from(statusNames, resultsByName, ImmutableMap.<String, TestResult>of());
+    }
+
+    /**
+     * @param statusNames   the status names, keyed by status id, as given in a Zephyr status map
+     * @param resultsByName the test result for each status name
+     * @param resultsById   the test result for status ids that are mapped whatever their name
+     */
+    public static StatusTable from(Map<String, String> statusNames,
+                                   Map<String, TestResult> resultsByName,
+                                   Map<String, TestResult> resultsById) {
+        TestResult[] resultsByStatusId = new TestResult[Math.max(tableSizeFor(statusNames.keySet()),
+                                                                 tableSizeFor(resultsById.keySet()))];
+        for(Map.Entry<String, String> status : statusNames.entrySet()) {
+            int index = indexOf(status.getKey());
+            if (index >= 0) {
+                resultsByStatusId[index] = resultFor(status.getValue(), resultsByName);
+            }
+        }
+        for(Map.Entry<String, TestResult> status : resultsById.entrySet()) {
+            int index = indexOf(status.getKey());
+            if (index >= 0) {
+                resultsByStatusId[index] = status.getValue();
+            }
+        }
+        return new StatusTable(resultsByStatusId, ImmutableMap.copyOf(resultsByName));
+    }
+
+    /**
+     * The result for a status id, or for the status name when the id is not in the table.
+     * Unknown statuses are pending.
+     */
+    public TestResult resultOf(String statusId, String statusName) {
+        int index = indexOf(statusId);
+        if (index >= 0 && index < resultsByStatusId.length && resultsByStatusId[index] != null) {
+            return resultsByStatusId[index];
+        }
+        return resultOf(statusName);
+    }
+
+    public TestResult resultOf(String statusName) {
+        return resultFor(statusName, resultsByName);
+    }
+
+    public boolean contains(String statusId) {
+        int index = indexOf(statusId);
+        return index >= 0 && index < resultsByStatusId.length && resultsByStatusId[index] != null;
+    }
+
+    private static TestResult resultFor(String statusName, Map<String, TestResult> resultsByName) {
+        TestResult testResult = (statusName != null) ? resultsByName.get(statusName) : null;
+        return (testResult != null) ? testResult : TestResult.PENDING;
+    }
+
+    private static int tableSizeFor(Iterable<String> statusIds) {
+        int highestIndex = -1;
+        for(String statusId : statusIds) {
+            highestIndex = Math.max(highestIndex, indexOf(statusId));
+        }
+        return highestIndex + 1;
+    }
+
+    private static int indexOf(String statusId) {
+        if (statusId == null) {
+            return -1;
+        }
+        try {
+            int id = Integer.parseInt(statusId.trim());
+            return (id >= FIRST_STATUS_ID && id <= LAST_STATUS_ID) ? id - FIRST_STATUS_ID : -1;
+        } catch (NumberFormatException notAStatusId) {
+            return -1;
+        }
+    }
+}
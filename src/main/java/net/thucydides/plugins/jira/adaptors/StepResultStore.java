@@ -0,0 +1,59 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the step statuses of the executions read during a single load, keyed by execution id.
+ * Zephyr only returns the step results of one execution per request, so the executions of a whole page of tests
+ * are requested together, before the tests are converted, and their requests are in flight at the same time.
+ * Each entry is dropped once it has been taken, so the store only ever holds the page being converted.
+ */
+class StepResultStore {
+
+    interface StepResultLookup {
+        ListenableFuture<Map<Long, String>> stepStatusesOf(Long executionId);
+    }
+
+    private final StepResultLookup lookup;
+    private final ConcurrentMap<Long, ListenableFuture<Map<Long, String>>> pendingResults = Maps.newConcurrentMap();
+
+    StepResultStore(StepResultLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Only called from the thread that hands out the tests for conversion, so no two prefetches run at once.
+     * The fetch threads take the results at the same time, which is why the map is a concurrent one.
+     */
+    public void prefetch(Iterable<Long> executionIds) {
+        for(Long executionId : executionIds) {
+            if (!pendingResults.containsKey(executionId)) {
+                pendingResults.put(executionId, startLookUp(executionId));
+            }
+        }
+    }
+
+    /**
+     * The step statuses of an execution, keyed by step id, requesting them now if they were not prefetched.
+     */
+    public ListenableFuture<Map<Long, String>> take(Long executionId) {
+        ListenableFuture<Map<Long, String>> prefetchedResults = pendingResults.remove(executionId);
+        if (prefetchedResults != null) {
+            return prefetchedResults;
+        }
+        return startLookUp(executionId);
+    }
+
+    private ListenableFuture<Map<Long, String>> startLookUp(Long executionId) {
+        try {
+            return lookup.stepStatusesOf(executionId);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import net.thucydides.core.model.TestResult;
+import org.joda.time.DateTime;
+
+/**
+ * The latest Zephyr execution recorded against a manual test.
+ * The execution id is null for tests that have not been executed.
+ */
+class TestExecutionRecord {
+    public final TestResult testResult;
+    public final DateTime executionDate;
+    public final boolean isDescoped;
+    public final Long executionId;
+
+    TestExecutionRecord(TestResult testResult, DateTime executionDate, boolean isDescoped) {
+        this(testResult, executionDate, isDescoped, null);
+    }
+
+    TestExecutionRecord(TestResult testResult, DateTime executionDate, boolean isDescoped, Long executionId) {
+        this.testResult = testResult;
+        this.executionDate = executionDate;
+        this.isDescoped = isDescoped;
+        this.executionId = executionId;
+    }
+}
@@ -0,0 +1,56 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.json.JSONException;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Holds the execution records fetched during a single load, so that each issue's Zephyr schedule
+ * is only requested once, however many times it is consulted.
+ * Concurrent requests for the same issue wait for the first one to complete.
+ */
+class TestExecutionRecordStore {
+
+    private final LoadingCache<Long, TestExecutionRecord> records;
+    private final boolean preloaded;
+
+    TestExecutionRecordStore(CacheLoader<Long, TestExecutionRecord> scheduleLoader) {
+        this(scheduleLoader, false);
+    }
+
+    TestExecutionRecordStore(CacheLoader<Long, TestExecutionRecord> scheduleLoader, boolean preloaded) {
+        this.records = CacheBuilder.newBuilder().build(scheduleLoader);
+        this.preloaded = preloaded;
+    }
+
+    /**
+     * Whether the records were all read beforehand, so that reading one never sends a request to Zephyr.
+     */
+    public boolean isPreloaded() {
+        return preloaded;
+    }
+
+    /**
+     * The record for an issue, if it can be had without sending a request to Zephyr.
+     */
+    public Optional<TestExecutionRecord> knownRecordFor(Long issueId) throws JSONException {
+        if (preloaded) {
+            return Optional.of(recordFor(issueId));
+        }
+        return Optional.fromNullable(records.getIfPresent(issueId));
+    }
+
+    public TestExecutionRecord recordFor(Long issueId) throws JSONException {
+        try {
+            return records.get(issueId);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), JSONException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import net.thucydides.core.model.TestOutcome;
+
+import java.io.IOException;
+
+/**
+ * Receives manual test outcomes one at a time, as the Zephyr adaptor converts them.
+ */
+public interface TestOutcomeHandler {
+    void handle(TestOutcome outcome) throws IOException;
+}
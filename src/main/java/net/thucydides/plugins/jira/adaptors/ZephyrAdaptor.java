@@ -1,253 +1,867 @@
 package net.thucydides.plugins.jira.adaptors;
 
 import com.beust.jcommander.internal.Lists;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import net.thucydides.core.guice.Injectors;
-import net.thucydides.core.model.Story;
 import net.thucydides.core.model.TestOutcome;
-import net.thucydides.core.model.TestResult;
-import net.thucydides.core.model.TestStep;
 import net.thucydides.core.reports.adaptors.TestOutcomeAdaptor;
 import net.thucydides.core.util.EnvironmentVariables;
-import net.thucydides.plugins.jira.client.JerseyJiraClient;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.LatestSchedule;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.ScheduleHistory;
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.TestStepDefinition;
 import net.thucydides.plugins.jira.domain.IssueSummary;
 import net.thucydides.plugins.jira.service.JIRAConfiguration;
 import net.thucydides.plugins.jira.service.SystemPropertiesJIRAConfiguration;
-import org.joda.time.DateTime;
-import org.json.JSONArray;
+import org.joda.time.LocalDate;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Response;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Read manual test results from the JIRA Zephyr plugin.
  */
-public class ZephyrAdaptor implements TestOutcomeAdaptor {
+public class ZephyrAdaptor implements TestOutcomeAdaptor, Closeable {
 
-    private static final String ZEPHYR_REST_API = "rest/zephyr/1.0";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZephyrAdaptor.class);
 
-    private static Map<String, TestResult> TEST_STATUS_MAP;
-    {
-        TEST_STATUS_MAP = Maps.newHashMap();
-        TEST_STATUS_MAP.put("PASS", TestResult.SUCCESS);
-        TEST_STATUS_MAP.put("FAIL", TestResult.FAILURE);
-        TEST_STATUS_MAP.put("WIP", TestResult.PENDING);
-        TEST_STATUS_MAP.put("BLOCKED", TestResult.SKIPPED);
-        TEST_STATUS_MAP.put("UNEXECUTED", TestResult.IGNORED);
-        TEST_STATUS_MAP.put("DESCOPED", TestResult.IGNORED);
-    }
+    private static final String ZEPHYR_REST_API = "rest/zephyr/1.0";
 
-    private final JerseyJiraClient jiraClient;
-    private final String jiraProject;
+    private final ZephyrRestClient restClient;
+    private final ZephyrMetrics metrics;
+    private final List<ManualTestQuery> manualTestQueries;
+    private final String snapshotSource;
+    private final ZephyrConfiguration zephyrConfiguration;
+    private final IssueSummaryCache issueSummaryCache;
+    private final ZephyrResponseReader responseReader = new ZephyrResponseReader();
+    private final ManualTestConverter converter;
+    private final AtomicLong scheduleRequestCount = new AtomicLong();
+    private volatile ExecutionHistory executionHistory = new ExecutionHistory();
 
     public ZephyrAdaptor() {
-        this(new SystemPropertiesJIRAConfiguration(Injectors.getInjector().getInstance(EnvironmentVariables.class)));
+        this(Injectors.getInjector().getInstance(EnvironmentVariables.class));
+    }
+
+    private ZephyrAdaptor(EnvironmentVariables environmentVariables) {
+        this(new SystemPropertiesJIRAConfiguration(environmentVariables), environmentVariables);
     }
 
     public ZephyrAdaptor(JIRAConfiguration jiraConfiguration) {
-        jiraProject = jiraConfiguration.getProject();
-        jiraClient = new JerseyJiraClient(jiraConfiguration.getJiraUrl(),
-                                          jiraConfiguration.getJiraUser(),
-                                          jiraConfiguration.getJiraPassword(),
-                                          jiraProject);
+        this(jiraConfiguration, Injectors.getInjector().getInstance(EnvironmentVariables.class));
+    }
+
+    public ZephyrAdaptor(JIRAConfiguration jiraConfiguration, EnvironmentVariables environmentVariables) {
+        this(jiraConfiguration, environmentVariables, new EndpointMetrics());
+    }
+
+    /**
+     * The metrics are told about every request made to JIRA and Zephyr, and about the end of each load.
+     */
+    public ZephyrAdaptor(JIRAConfiguration jiraConfiguration,
+                         EnvironmentVariables environmentVariables,
+                         ZephyrMetrics metrics) {
+        this.metrics = metrics;
+        zephyrConfiguration = new ZephyrConfiguration(environmentVariables);
+        converter = new ManualTestConverter(
+                ManualTestConverter.defaultStatusResultsWith(zephyrConfiguration.getStatusResultsByName()),
+                zephyrConfiguration.getStatusResultsById(),
+                zephyrConfiguration.getStepStatusResultsById());
+        manualTestQueries = manualTestQueriesFor(jiraConfiguration.getProject());
+        snapshotSource = snapshotSourceFor(jiraConfiguration.getJiraUrl());
+        restClient = new ZephyrRestClient(jiraConfiguration, zephyrConfiguration, metrics);
+        issueSummaryCache = new IssueSummaryCache(zephyrConfiguration.getLabelCacheMaximumSize(),
+                                                  zephyrConfiguration.getLabelCacheTimeToLiveInSeconds(),
+                                                  zephyrConfiguration.getLabelCacheUnknownIssueTimeToLiveInSeconds());
+    }
+
+    /**
+     * The tests are loaded from the configured JQL query if there is one, and otherwise from each of the
+     * configured projects, or just the JIRA project.
+     */
+    private List<ManualTestQuery> manualTestQueriesFor(String jiraProject) {
+        Optional<String> testQuery = zephyrConfiguration.getTestQuery();
+        if (testQuery.isPresent()) {
+            return ImmutableList.of(ManualTestQuery.forJQL(testQuery.get()));
+        }
+        List<String> projects = zephyrConfiguration.getProjects();
+        if (projects.isEmpty()) {
+            return ImmutableList.of(ManualTestQuery.forProject(jiraProject));
+        }
+        ImmutableList.Builder<ManualTestQuery> queries = ImmutableList.builder();
+        for(String project : projects) {
+            queries.add(ManualTestQuery.forProject(project));
+        }
+        return queries.build();
+    }
+
+    /**
+     * Everything that decides which records a snapshot holds, so that a snapshot of other tests,
+     * or of differently mapped results, is never reused.
+     */
+    private String snapshotSourceFor(String jiraUrl) {
+        return "url=" + jiraUrl
+               + "; queries=" + manualTestQueries
+               + "; status names=" + zephyrConfiguration.getStatusResultsByName()
+               + "; status ids=" + zephyrConfiguration.getStatusResultsById()
+               + "; step status ids=" + zephyrConfiguration.getStepStatusResultsById()
+               + "; step results=" + zephyrConfiguration.isStepResultLoadingActive();
     }
 
     @Override
     public List<TestOutcome> loadOutcomes() throws IOException {
+        OutcomeCollector outcomes = new OutcomeCollector();
+        loadOutcomes(outcomes);
+        return outcomes.collected;
+    }
+
+    /**
+     * Loads the manual test outcomes, and hands each one to the handler as soon as it has been converted,
+     * in JQL order. The handler is called on the calling thread, and the adaptor only fetches a few tests
+     * ahead of it, so a slow handler slows the loading down rather than letting outcomes pile up in memory.
+     * When several projects are configured, they are loaded at the same time, sharing the connections
+     * and the label cache, and their outcomes are handed over one project after another in the configured order.
+     */
+    public void loadOutcomes(TestOutcomeHandler handler) throws IOException {
         try {
-            List<IssueSummary> manualTests = jiraClient.findByJQL("type=Test and project=" + jiraProject);
-            return extractTestOutcomesFrom(manualTests);
+            converter.startLoad();
+            loadManualTestRecords(toOutcomesFor(handler));
+        } finally {
+            metrics.loadCompleted(getLabelCacheStats());
+        }
+    }
+
+    /**
+     * When snapshots are active, loads the manual test outcomes from a snapshot file, if it was written
+     * from the same server, queries and status mapping, and is younger than the configured maximum age.
+     * Otherwise the outcomes are loaded from JIRA, and the snapshot is rewritten.
+     * In incremental mode, an older snapshot is brought up to date with just the tests and executions
+     * that have changed since it was written.
+     * Given a directory, the snapshot is kept in a file inside it. A file that is not a snapshot is left alone,
+     * and the outcomes are loaded from JIRA without one.
+     */
+    @Override
+    public List<TestOutcome> loadOutcomesFrom(File file) throws IOException {
+        OutcomeCollector outcomes = new OutcomeCollector();
+        loadOutcomesFrom(file, outcomes);
+        return outcomes.collected;
+    }
+
+    public void loadOutcomesFrom(File file, TestOutcomeHandler handler) throws IOException {
+        if (!zephyrConfiguration.isSnapshotActive()) {
+            loadOutcomes(handler);
+            return;
+        }
+        try {
+            converter.startLoad();
+            loadOrSyncOutcomesFrom(new ManualTestSnapshot(file, snapshotSource), handler);
+        } finally {
+            metrics.loadCompleted(getLabelCacheStats());
+        }
+    }
+
+    private void loadOrSyncOutcomesFrom(ManualTestSnapshot snapshot, TestOutcomeHandler handler) throws IOException {
+        Optional<Long> lastSync = snapshot.syncedAt();
+        if (!snapshot.canBeWritten()) {
+            LOGGER.warn("{} is not a Zephyr snapshot, so the manual tests are loaded from JIRA without one",
+                        snapshot.getFile());
+            loadManualTestRecords(toOutcomesFor(handler));
+        } else if (snapshot.isYoungerThan(zephyrConfiguration.getSnapshotMaxAgeInMillis())) {
+            snapshot.readRecords(toOutcomesFor(handler));
+        } else if (zephyrConfiguration.isIncrementalSyncActive() && lastSync.isPresent() && isSingleProject()) {
+            syncIncrementally(snapshot, lastSync.get(), handler);
+        } else {
+            try (ManualTestSnapshot.Writer snapshotWriter = snapshot.writer()) {
+                loadManualTestRecords(recordedIn(snapshotWriter, toOutcomesFor(handler)));
+                snapshotWriter.commit();
+            }
+        }
+    }
+
+    private void syncIncrementally(ManualTestSnapshot snapshot, long lastSync, TestOutcomeHandler handler) throws IOException {
+        long syncStartedAt = System.currentTimeMillis();
+        Map<Long, ManualTestRecord> records = recordsById(snapshot);
+        readStepStatuses();
+        try {
+            mergeUpdatedTestsInto(records, lastSync);
+            mergeChangedExecutionsInto(records, lastSync);
+            if (restClient.countByJQL(singleProjectQuery().getJQL()) != records.size()) {
+                reloadFromScratch(snapshot, handler);
+                return;
+            }
         } catch (JSONException e) {
-            throw new IllegalArgumentException("Failed to load Zephyr manual tests", e);
+            throw new IllegalArgumentException("Failed to synchronise Zephyr manual tests", e);
+        }
+        try (ManualTestSnapshot.Writer snapshotWriter = snapshot.writer(syncStartedAt)) {
+            ResultHandler<ManualTestRecord> recordHandler = recordedIn(snapshotWriter, toOutcomesFor(handler));
+            for(ManualTestRecord record : records.values()) {
+                recordHandler.handle(record);
+            }
+            snapshotWriter.commit();
+        }
+    }
+
+    /**
+     * Tests have been removed or moved out of the project since the last sync, so the snapshot is rebuilt.
+     */
+    private void reloadFromScratch(ManualTestSnapshot snapshot, TestOutcomeHandler handler) throws IOException {
+        try (ManualTestSnapshot.Writer snapshotWriter = snapshot.writer()) {
+            loadManualTestRecords(recordedIn(snapshotWriter, toOutcomesFor(handler)));
+            snapshotWriter.commit();
         }
     }
 
-    private List<TestOutcome> extractTestOutcomesFrom(List<IssueSummary> manualTests) throws JSONException {
-        List<TestOutcome> outcomes = Lists.newArrayList();
-        for(IssueSummary manualTest : manualTests) {
-            TestExecutionRecord testExecutionRecord = getTestExecutionRecordFor(manualTest.getId());
-            if (!testExecutionRecord.isDescoped) {
-                outcomes.add(convert(manualTest));
+    private Map<Long, ManualTestRecord> recordsById(ManualTestSnapshot snapshot) throws IOException {
+        final Map<Long, ManualTestRecord> records = Maps.newLinkedHashMap();
+        snapshot.readRecords(new ResultHandler<ManualTestRecord>() {
+            @Override
+            public void handle(ManualTestRecord record) {
+                records.put(record.id, record);
             }
+        });
+        return records;
+    }
+
+    /**
+     * JQL only accepts dates to the minute, in the server's time zone, so the query uses a relative period
+     * that reaches back a minute further than the last sync.
+     */
+    private void mergeUpdatedTestsInto(final Map<Long, ManualTestRecord> records, long lastSync) throws IOException {
+        long minutesSinceLastSync = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - lastSync) + 1;
+        String updatedTestsQuery = singleProjectQuery().getJQL() + " and updated >= -" + minutesSinceLastSync + "m";
+        try (PagedIssueSearch updatedTestPages = new PagedIssueSearch(restClient, updatedTestsQuery,
+                                                                      restClient.getBatchSize())) {
+            extractManualTestRecordsFrom(updatedTestPages,
+                                         newExecutionRecordStore(),
+                                         new ResultHandler<ManualTestRecord>() {
+                                             @Override
+                                             public void handle(ManualTestRecord record) {
+                                                 records.put(record.id, record);
+                                             }
+                                         });
         }
-        return outcomes;
     }
 
-    public TestOutcome convert(IssueSummary issue) {
+    /**
+     * Executions do not change the issue's updated date, so tests that were executed since the last sync
+     * get their execution record refreshed from a ZQL search. ZQL dates are days, so the search starts
+     * at the beginning of the day of the last sync.
+     * The step results of the changed executions are requested together, before any record is refreshed.
+     */
+    private void mergeChangedExecutionsInto(Map<Long, ManualTestRecord> records, long lastSync) throws JSONException {
+        Map<Long, TestExecutionRecord> latestExecutions = Maps.newLinkedHashMap();
+        for(Map.Entry<Long, JSONObject> changedExecution : executionsSince(new LocalDate(lastSync)).entrySet()) {
+            if (records.containsKey(changedExecution.getKey())) {
+                latestExecutions.put(changedExecution.getKey(),
+                                     converter.executionRecordFrom(changedExecution.getValue()));
+            }
+        }
+        StepResultStore stepResults = newStepResultStore();
+        if (zephyrConfiguration.isStepResultLoadingActive()) {
+            stepResults.prefetch(executionIdsIn(latestExecutions.values()));
+        }
+        for(Map.Entry<Long, TestExecutionRecord> latestExecution : latestExecutions.entrySet()) {
+            refreshExecutionRecord(records, records.get(latestExecution.getKey()), latestExecution.getValue(),
+                                   stepResults);
+        }
+    }
 
+    /**
+     * Zephyr versions that cannot filter executions by date get the latest execution of every test instead.
+     */
+    private Map<Long, JSONObject> executionsSince(LocalDate day) throws JSONException {
+        BulkExecutionLoader loader = new BulkExecutionLoader(restClient, zephyrConfiguration.getExecutionPageSize());
+        String project = singleProjectQuery().getProject().get();
         try {
-            List<IssueSummary> associatedIssues = getLabelsWithMatchingIssues(issue);
-            TestOutcome outcome = TestOutcome.forTestInStory("Manual test - " + issue.getSummary() + " (" + issue.getKey() + ")",
-                    storyFrom(associatedIssues));
-            outcome.setDescription(issue.getRendered().getDescription());
-            outcome = outcomeWithTagsForIssues(outcome, issue, associatedIssues);
-            TestExecutionRecord testExecutionRecord = getTestExecutionRecordFor(issue.getId());
+            return loader.latestExecutionsForProjectSince(project, day);
+        } catch (JSONException unsupportedQuery) {
+            return loader.latestExecutionsForProject(project);
+        }
+    }
+
+    /**
+     * A test that is no longer descoped has never had its labels and steps read, so it is read again in full.
+     */
+    private void refreshExecutionRecord(Map<Long, ManualTestRecord> records,
+                                        ManualTestRecord record,
+                                        TestExecutionRecord latestExecution,
+                                        StepResultStore stepResults) throws JSONException {
+        if (record.executionRecord.isDescoped && !latestExecution.isDescoped) {
+            records.put(record.id, manualTestRecordFor(issueWithId(record.id),
+                                                       storeContaining(record.id, latestExecution),
+                                                       stepResults));
+        } else {
+            Map<Long, String> stepStatuses = latestExecution.isDescoped ? Collections.<Long, String>emptyMap()
+                                                                        : resultOf(stepStatusesOf(latestExecution,
+                                                                                                  stepResults));
+            records.put(record.id, converter.withLatestExecution(record, latestExecution, stepStatuses));
+        }
+    }
+
+    private IssueSummary issueWithId(Long id) throws JSONException {
+        List<IssueSummary> matchingIssues = restClient.findByJQL("id=" + id);
+        if (matchingIssues.isEmpty()) {
+            throw new JSONException("No JIRA issue found with id " + id);
+        }
+        return matchingIssues.get(0);
+    }
+
+    private TestExecutionRecordStore storeContaining(Long issueId, TestExecutionRecord executionRecord) {
+        Map<Long, TestExecutionRecord> executionRecords = Maps.newHashMap();
+        executionRecords.put(issueId, executionRecord);
+        return executionRecordStoreFrom(executionRecords);
+    }
+
+    /**
+     * Incremental syncs search for changed executions by project, so they are only made for a single project.
+     */
+    private boolean isSingleProject() {
+        return (manualTestQueries.size() == 1) && manualTestQueries.get(0).getProject().isPresent();
+    }
 
-            outcome.clearStartTime();
+    private ManualTestQuery singleProjectQuery() {
+        return manualTestQueries.get(0);
+    }
 
-            addTestStepsTo(outcome, testExecutionRecord, issue.getId());
+    private void loadManualTestRecords(ResultHandler<ManualTestRecord> handler) throws IOException {
+        readStepStatuses();
+        Optional<ExecutionHistory> history = newExecutionHistory();
+        if (manualTestQueries.size() == 1) {
+            loadManualTestRecords(manualTestQueries.get(0), history, handler);
+        } else {
+            loadManualTestRecordsConcurrently(history, handler);
+        }
+    }
 
-            if (noStepsAreDefined(outcome)) {
-                updateOverallTestOutcome(outcome, testExecutionRecord);
+    /**
+     * Each query is loaded on a thread of its own, and its records are handed over as they are read,
+     * in query order. A query that is ahead of the handler only gets a search page of records ahead of it,
+     * then waits for the handler to reach it.
+     */
+    private void loadManualTestRecordsConcurrently(final Optional<ExecutionHistory> history,
+                                                   ResultHandler<ManualTestRecord> handler) throws IOException {
+        ExecutorService queryLoaders = Executors.newFixedThreadPool(
+                zephyrConfiguration.getProjectParallelism(),
+                new ThreadFactoryBuilder().setNameFormat("zephyr-project-%d").setDaemon(true).build());
+        try {
+            List<ManualTestRecordQueue> queuedRecords = Lists.newArrayList();
+            for(final ManualTestQuery query : manualTestQueries) {
+                final ManualTestRecordQueue queryRecords = new ManualTestRecordQueue(restClient.getBatchSize());
+                queryLoaders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadQueryInto(queryRecords, query, history);
+                    }
+                });
+                queuedRecords.add(queryRecords);
             }
-            return outcome.asManualTest();
-        } catch (JSONException e) {
-            throw new IllegalArgumentException(e);
+            for(ManualTestRecordQueue queryRecords : queuedRecords) {
+                queryRecords.drainTo(handler);
+            }
+        } finally {
+            queryLoaders.shutdownNow();
         }
     }
 
-    private void updateOverallTestOutcome(TestOutcome outcome, TestExecutionRecord testExecutionRecord) {
-        outcome.setAnnotatedResult(testExecutionRecord.testResult);
-        if (testExecutionRecord.executionDate != null) {
-            outcome.setStartTime(testExecutionRecord.executionDate);
+    private void loadQueryInto(ManualTestRecordQueue queryRecords,
+                               ManualTestQuery query,
+                               Optional<ExecutionHistory> history) {
+        try {
+            loadManualTestRecords(query, history, queryRecords);
+            queryRecords.finished();
+        } catch (IOException e) {
+            queryRecords.failed(new IllegalArgumentException("Failed to load Zephyr manual tests for " + query, e));
+        } catch (Throwable e) {
+            queryRecords.failed(e);
         }
     }
 
-    private boolean noStepsAreDefined(TestOutcome outcome) {
-        return outcome.getTestSteps().isEmpty();
+    private void loadManualTestRecords(ManualTestQuery query,
+                                       Optional<ExecutionHistory> history,
+                                       ResultHandler<ManualTestRecord> handler) throws IOException {
+        PagedIssueSearch manualTestPages = null;
+        try {
+            TestExecutionRecordStore executionRecords = executionRecordStoreFor(query, history);
+            manualTestPages = new PagedIssueSearch(restClient, query.getJQL(), restClient.getBatchSize());
+            extractManualTestRecordsFrom(manualTestPages, executionRecords, handler);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Failed to load Zephyr manual tests", e);
+        } finally {
+            if (manualTestPages != null) {
+                manualTestPages.close();
+            }
+        }
     }
 
-    private void addTestStepsTo(TestOutcome outcome, TestExecutionRecord testExecutionRecord, Long id) throws JSONException {
+    /**
+     * Before the tests of each page are handed out for conversion, the issues their labels refer to
+     * are looked up together, so that converting the tests finds them in the label cache.
+     * When the executions have already been read, the step results of the page's executions are requested
+     * at the same time.
+     */
+    private Iterator<Iterator<IssueSummary>> issuesIn(Iterator<List<IssueSummary>> pages,
+                                                      final TestExecutionRecordStore executionRecords,
+                                                      final StepResultStore stepResults) {
+        final BatchLabelResolver labelResolver = new BatchLabelResolver(restClient, issueSummaryCache,
+                                                                        zephyrConfiguration.getLabelBatchSize());
+        final boolean prefetchStepResults = zephyrConfiguration.isStepResultLoadingActive()
+                                            && executionRecords.isPreloaded();
+        return Iterators.transform(pages, new Function<List<IssueSummary>, Iterator<IssueSummary>>() {
+            @Override
+            public Iterator<IssueSummary> apply(List<IssueSummary> page) {
+                labelResolver.resolveLabelsOf(page);
+                if (prefetchStepResults) {
+                    stepResults.prefetch(executionIdsOf(page, executionRecords));
+                }
+                return page.iterator();
+            }
+        });
+    }
 
-        JSONArray stepObjects = getTestStepsForId(id);
+    private List<Long> executionIdsOf(List<IssueSummary> manualTests, TestExecutionRecordStore executionRecords) {
+        List<TestExecutionRecord> pageExecutions = Lists.newArrayList();
+        try {
+            for(IssueSummary manualTest : manualTests) {
+                pageExecutions.add(executionRecords.recordFor(manualTest.getId()));
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return executionIdsIn(pageExecutions);
+    }
 
-        if (hasTestSteps(stepObjects)) {
-            for (int i = 0; i < stepObjects.length(); i++) {
-                JSONObject step = stepObjects.getJSONObject(i);
-                outcome.recordStep(fromJson(step, testExecutionRecord));
-                if (testExecutionRecord.executionDate != null) {
-                    outcome.setStartTime(testExecutionRecord.executionDate);
-                }
+    /**
+     * The executions that can have step results: descoped tests are not reported, so theirs are not needed.
+     */
+    private List<Long> executionIdsIn(Iterable<TestExecutionRecord> executionRecords) {
+        List<Long> executionIds = Lists.newArrayList();
+        for(TestExecutionRecord executionRecord : executionRecords) {
+            if ((executionRecord.executionId != null) && !executionRecord.isDescoped) {
+                executionIds.add(executionRecord.executionId);
             }
         }
+        return executionIds;
     }
 
-    private JSONArray getTestStepsForId(Long id) throws JSONException {
-        WebTarget target = jiraClient.buildWebTargetFor(ZEPHYR_REST_API + "/teststep/" + id);
-        Response response = target.request().get();
-        jiraClient.checkValid(response);
+    private void extractManualTestRecordsFrom(Iterator<List<IssueSummary>> manualTestPages,
+                                              TestExecutionRecordStore executionRecords,
+                                              ResultHandler<ManualTestRecord> handler) throws IOException {
+        StepResultStore stepResults = newStepResultStore();
+        OrderedParallelFetcher fetcher = newTestFetcher();
+        fetcher.fetchInOrder(Iterators.concat(issuesIn(manualTestPages, executionRecords, stepResults)),
+                             toManualTestRecords(executionRecords, stepResults),
+                             handler);
+    }
+
+    private OrderedParallelFetcher newTestFetcher() {
+        if (zephyrConfiguration.isVirtualThreadFetchingActive()) {
+            return new OrderedParallelFetcher(zephyrConfiguration.getMaxVirtualThreadFetches(), true);
+        }
+        return new OrderedParallelFetcher(zephyrConfiguration.getFetchParallelism(), false);
+    }
+
+    private Function<IssueSummary, ManualTestRecord> toManualTestRecords(final TestExecutionRecordStore executionRecords,
+                                                                         final StepResultStore stepResults) {
+        return new Function<IssueSummary, ManualTestRecord>() {
+            @Override
+            public ManualTestRecord apply(IssueSummary manualTest) {
+                try {
+                    return manualTestRecordFor(manualTest, executionRecords, stepResults);
+                } catch (JSONException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        };
+    }
 
-        String jsonResponse = response.readEntity(String.class);
-        return new JSONArray(jsonResponse);
+    /**
+     * Descoped tests are not reported, so their labels and steps are not fetched.
+     */
+    private ManualTestRecord descopedRecordFor(IssueSummary manualTest, TestExecutionRecord testExecutionRecord) {
+        return new ManualTestRecord(manualTest.getId(), manualTest.getKey(), manualTest.getSummary(), null,
+                                    ImmutableList.<String>of(), Optional.<String>absent(),
+                                    testExecutionRecord, ImmutableList.<String>of());
     }
 
-    private boolean hasTestSteps(JSONArray stepObjects) {
-        return stepObjects.length() > 0;
+    private ResultHandler<ManualTestRecord> toOutcomesFor(final TestOutcomeHandler handler) {
+        return new ResultHandler<ManualTestRecord>() {
+            @Override
+            public void handle(ManualTestRecord record) throws IOException {
+                if (!record.executionRecord.isDescoped) {
+                    handler.handle(converter.outcomeFrom(record));
+                }
+            }
+        };
     }
 
-    private TestStep fromJson(JSONObject step, TestExecutionRecord testExecutionRecord) throws JSONException {
-        String stepDescription = step.getString("htmlStep");
-        return TestStep.forStepCalled(stepDescription).withResult(testExecutionRecord.testResult);
+    private ResultHandler<ManualTestRecord> recordedIn(final ManualTestSnapshot.Writer snapshotWriter,
+                                                       final ResultHandler<ManualTestRecord> handler) {
+        return new ResultHandler<ManualTestRecord>() {
+            @Override
+            public void handle(ManualTestRecord record) throws IOException {
+                snapshotWriter.write(record);
+                handler.handle(record);
+            }
+        };
     }
 
-    class TestExecutionRecord {
-        public final TestResult testResult;
-        public final DateTime executionDate;
-        public final boolean isDescoped;
+    private static class OutcomeCollector implements TestOutcomeHandler {
+        private final List<TestOutcome> collected = Lists.newArrayList();
 
-        TestExecutionRecord(TestResult testResult, DateTime executionDate, boolean isDescoped) {
-            this.testResult = testResult;
-            this.executionDate = executionDate;
-            this.isDescoped = isDescoped;
+        @Override
+        public void handle(TestOutcome outcome) {
+            collected.add(outcome);
         }
     }
 
-    private TestExecutionRecord getTestExecutionRecordFor(Long id) throws JSONException {
-        WebTarget target = jiraClient.buildWebTargetFor(ZEPHYR_REST_API + "/schedule").queryParam("issueId", id);
-        Response response = target.request().get();
-        jiraClient.checkValid(response);
-
-        String jsonResponse = response.readEntity(String.class);
-        JSONObject testSchedule = new JSONObject(jsonResponse);
-        JSONArray schedules = testSchedule.getJSONArray("schedules");
-        JSONObject statusMap = testSchedule.getJSONObject("status");
-
-        if (hasTestSteps(schedules)) {
-            JSONObject latestSchedule = schedules.getJSONObject(0);
-            String executionStatus = latestSchedule.getString("executionStatus");
-            DateTime executionDate = executionDateFor(latestSchedule);
-            boolean descoped = (executionStatus.equalsIgnoreCase("descoped"));
-            return new TestExecutionRecord(getTestResultFrom(executionStatus, statusMap), executionDate, descoped);
-        } else {
-            return new TestExecutionRecord(TestResult.PENDING, null, false);
+    public TestOutcome convert(IssueSummary issue) {
+        try {
+            return Uninterruptibles.getUninterruptibly(convertAsync(issue));
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IllegalArgumentException.class);
+            throw new IllegalArgumentException(e.getCause());
         }
     }
 
-    private DateTime executionDateFor(JSONObject latestSchedule) throws JSONException {
-        if (latestSchedule.has("executedOn")) {
-            return parser().parse(latestSchedule.getString("executedOn"));
-        } else {
-            return null;
+    /**
+     * Converts a manual test without tying up a thread while it is fetched: the issues its labels refer to,
+     * its latest schedule and its steps are requested at the same time, and the outcome is ready
+     * once the last of them has been read.
+     */
+    public ListenableFuture<TestOutcome> convertAsync(final IssueSummary issue) {
+        final ListenableFuture<List<IssueSummary>> associatedIssues = labelsWithMatchingIssuesAsync(issue);
+        final ListenableFuture<TestExecutionRecord> executionRecord = testExecutionRecordForAsync(issue.getId());
+        final ListenableFuture<List<TestStepDefinition>> steps = testStepsForIdAsync(issue.getId());
+        final ListenableFuture<Map<Long, String>> stepStatuses = Futures.transform(executionRecord,
+                new AsyncFunction<TestExecutionRecord, Map<Long, String>>() {
+                    @Override
+                    public ListenableFuture<Map<Long, String>> apply(TestExecutionRecord executionRecord) {
+                        return stepStatusesOf(executionRecord, newStepResultStore());
+                    }
+                });
+        ListenableFuture<List<Object>> allLookups = Futures.allAsList(
+                ImmutableList.<ListenableFuture<?>>of(associatedIssues, executionRecord, steps, stepStatuses));
+        return Futures.transform(allLookups, new Function<List<Object>, TestOutcome>() {
+            @Override
+            public TestOutcome apply(List<Object> completedLookups) {
+                return converter.outcomeFrom(converter.manualTestRecordFrom(issue,
+                                                                            Futures.getUnchecked(associatedIssues),
+                                                                            Futures.getUnchecked(executionRecord),
+                                                                            Futures.getUnchecked(steps),
+                                                                            Futures.getUnchecked(stepStatuses)));
+            }
+        });
+    }
+
+    /**
+     * When the execution record is already known, as it is when the executions were loaded in bulk, descoped
+     * tests are recognised straight away, and their steps and labels are never requested.
+     * Otherwise the steps of the test, and the issues its labels refer to, are requested before its schedule
+     * is read on this thread, so converting a test takes as long as the slowest of the three lookups
+     * rather than all three of them together. The lookups for a test that turns out to be descoped are wasted then.
+     * The step results can only be requested once the execution is known, unless they were prefetched.
+     */
+    private ManualTestRecord manualTestRecordFor(IssueSummary issue,
+                                                 TestExecutionRecordStore executionRecords,
+                                                 StepResultStore stepResults) throws JSONException {
+        Optional<TestExecutionRecord> knownExecutionRecord = executionRecords.knownRecordFor(issue.getId());
+        if (knownExecutionRecord.isPresent() && knownExecutionRecord.get().isDescoped) {
+            return descopedRecordFor(issue, knownExecutionRecord.get());
         }
+        ListenableFuture<List<IssueSummary>> associatedIssues = labelsWithMatchingIssuesAsync(issue);
+        ListenableFuture<List<TestStepDefinition>> steps = testStepsForIdAsync(issue.getId());
+        TestExecutionRecord executionRecord = knownExecutionRecord.isPresent() ? knownExecutionRecord.get()
+                                                                               : executionRecords.recordFor(issue.getId());
+        if (executionRecord.isDescoped) {
+            return descopedRecordFor(issue, executionRecord);
+        }
+        ListenableFuture<Map<Long, String>> stepStatuses = stepStatusesOf(executionRecord, stepResults);
+        return converter.manualTestRecordFrom(issue,
+                                              resultOf(associatedIssues),
+                                              executionRecord,
+                                              resultOf(steps),
+                                              resultOf(stepStatuses));
     }
 
-    private ZephyrDateParser parser() {
-        return new ZephyrDateParser(new DateTime());
+    private ListenableFuture<Map<Long, String>> stepStatusesOf(TestExecutionRecord executionRecord,
+                                                               StepResultStore stepResults) {
+        if (zephyrConfiguration.isStepResultLoadingActive() && (executionRecord.executionId != null)) {
+            return stepResults.take(executionRecord.executionId);
+        }
+        return Futures.immediateFuture(Collections.<Long, String>emptyMap());
     }
 
-    private TestResult getTestResultFrom(String executionStatus, JSONObject statusMap) throws JSONException {
-        JSONObject status = statusMap.getJSONObject(executionStatus);
-        if (status != null) {
-            String statusName = status.getString("name");
-            if (TEST_STATUS_MAP.containsKey(statusName)) {
-                return TEST_STATUS_MAP.get(statusName);
-            }
+    /**
+     * Step results only give a status id, so when they are read, Zephyr's list of step statuses, custom ones
+     * included, is read at the start of the load. Zephyr versions without the list keep the built-in statuses.
+     */
+    private void readStepStatuses() {
+        if (!zephyrConfiguration.isStepResultLoadingActive()) {
+            return;
+        }
+        WebTarget target = restClient.target(ZEPHYR_REST_API + "/util/teststepExecutionStatus");
+        try {
+            converter.useStepStatuses(restClient.get(ZephyrMetrics.STEP_STATUSES, target,
+                                                     new ZephyrRestClient.ResponseReader<Map<String, String>>() {
+                @Override
+                public Map<String, String> read(InputStream body) throws IOException {
+                    return responseReader.readStepStatusNamesFrom(body);
+                }
+            }));
+        } catch (JSONException e) {
+            LOGGER.debug("Could not read the Zephyr step statuses, so only the built-in ones are mapped", e);
         }
-        return TestResult.PENDING;
     }
 
-    private TestOutcome outcomeWithTagsForIssues(TestOutcome outcome, IssueSummary issueCard, List<IssueSummary> associatedIssues) {
+    private StepResultStore newStepResultStore() {
+        return new StepResultStore(new StepResultStore.StepResultLookup() {
+            @Override
+            public ListenableFuture<Map<Long, String>> stepStatusesOf(Long executionId) {
+                WebTarget target = restClient.target(ZEPHYR_REST_API + "/stepResult")
+                                             .queryParam("executionId", executionId);
+                return restClient.getAsync(ZephyrMetrics.STEP_RESULTS, target,
+                                           new ZephyrRestClient.ResponseReader<Map<Long, String>>() {
+                    @Override
+                    public Map<Long, String> read(InputStream body) throws IOException {
+                        return responseReader.readStepStatusesFrom(body);
+                    }
+                });
+            }
+        });
+    }
 
-        List<String> issueKeys = Lists.newArrayList();
-        for(IssueSummary issue : associatedIssues) {
-            issueKeys.add(issue.getKey());
+    private <T> T resultOf(ListenableFuture<T> lookup) throws JSONException {
+        try {
+            return Uninterruptibles.getUninterruptibly(lookup);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), JSONException.class);
+            throw Throwables.propagate(e.getCause());
         }
-        return outcome.withIssues(issueKeys);
     }
 
-    private Story storyFrom(List<IssueSummary> associatedIssues) {
-        Optional<Story> associatedStory = storyAssociatedByLabels(associatedIssues);
-        return associatedStory.or(Story.called("Manual tests"));
+    private ListenableFuture<List<TestStepDefinition>> testStepsForIdAsync(Long id) {
+        return restClient.getAsync(ZephyrMetrics.TEST_STEPS, testStepsTarget(id), stepsReader());
     }
 
-    private Optional<Story> storyAssociatedByLabels(List<IssueSummary> associatedIssues) {
-        if (!associatedIssues.isEmpty()) {
-            return Optional.of(Story.called(associatedIssues.get(0).getSummary()));
+    private WebTarget testStepsTarget(Long id) {
+        return restClient.target(ZEPHYR_REST_API + "/teststep/" + id);
+    }
+
+    private ZephyrRestClient.ResponseReader<List<TestStepDefinition>> stepsReader() {
+        return new ZephyrRestClient.ResponseReader<List<TestStepDefinition>>() {
+            @Override
+            public List<TestStepDefinition> read(InputStream body) throws IOException {
+                return responseReader.readStepsFrom(body);
+            }
+        };
+    }
+
+    /**
+     * The number of Zephyr schedule requests this adaptor has made so far.
+     */
+    public long getScheduleRequestCount() {
+        return scheduleRequestCount.get();
+    }
+
+    /**
+     * Every execution read by the last load from JIRA, when the execution history is being kept.
+     * Loads from a snapshot and incremental syncs only read the latest executions, and leave the history as it was.
+     */
+    public ExecutionHistory getExecutionHistory() {
+        return executionHistory;
+    }
+
+    private Optional<ExecutionHistory> newExecutionHistory() {
+        if (zephyrConfiguration.isExecutionHistoryActive()) {
+            executionHistory = new ExecutionHistory();
+            return Optional.of(executionHistory);
         }
         return Optional.absent();
     }
 
-    private List<IssueSummary> getLabelsWithMatchingIssues(IssueSummary issue) throws JSONException {
-        List<IssueSummary> matchingIssues = Lists.newArrayList();
-        for(String label : issue.getLabels()) {
-            matchingIssues.addAll(issueWithKey(label).asSet());
+    /**
+     * Executions are only loaded in bulk for the tests of a whole project; the tests picked out by a JQL query
+     * have their schedules read one test at a time.
+     */
+    private TestExecutionRecordStore executionRecordStoreFor(ManualTestQuery query,
+                                                             Optional<ExecutionHistory> history) throws JSONException {
+        if (zephyrConfiguration.isBulkExecutionLoadingActive() && query.getProject().isPresent()) {
+            return executionRecordStoreFrom(bulkLoadedExecutionRecords(query.getProject().get(), history));
         }
-        return ImmutableList.copyOf(matchingIssues);
+        return newExecutionRecordStore(history);
     }
 
-    private Map<String, Optional<IssueSummary>> issueSummaryCache = Maps.newConcurrentMap();
+    private Map<Long, TestExecutionRecord> bulkLoadedExecutionRecords(String project,
+                                                                      Optional<ExecutionHistory> history) throws JSONException {
+        BulkExecutionLoader loader = new BulkExecutionLoader(restClient, zephyrConfiguration.getExecutionPageSize(),
+                                                             executionsAddedTo(history));
+        Map<Long, JSONObject> latestExecutions = loader.latestExecutionsForProject(project);
 
-    private Optional<IssueSummary> issueWithKey(String key) throws JSONException {
-        if (issueSummaryCache.containsKey(key)) {
-            return issueSummaryCache.get(key);
-        } else {
-            Optional<IssueSummary> issueSummary = jiraClient.findByKey(key);
-            issueSummaryCache.put(key, issueSummary);
-            return issueSummary;
+        Map<Long, TestExecutionRecord> executionRecords = Maps.newHashMap();
+        for(Map.Entry<Long, JSONObject> latestExecution : latestExecutions.entrySet()) {
+            executionRecords.put(latestExecution.getKey(), converter.executionRecordFrom(latestExecution.getValue()));
         }
+        return executionRecords;
     }
 
+    private TestExecutionRecordStore executionRecordStoreFrom(final Map<Long, TestExecutionRecord> executionRecords) {
+        return new TestExecutionRecordStore(new CacheLoader<Long, TestExecutionRecord>() {
+            @Override
+            public TestExecutionRecord load(Long issueId) {
+                if (executionRecords.containsKey(issueId)) {
+                    return executionRecords.get(issueId);
+                }
+                return converter.unexecutedRecord();
+            }
+        }, true);
+    }
+
+    private BulkExecutionLoader.ExecutionListener executionsAddedTo(final Optional<ExecutionHistory> history) {
+        return new BulkExecutionLoader.ExecutionListener() {
+            @Override
+            public void executionRead(JSONObject execution) throws JSONException {
+                if (history.isPresent()) {
+                    converter.addExecutionTo(history.get(), execution);
+                }
+            }
+        };
+    }
+
+    private TestExecutionRecordStore newExecutionRecordStore() {
+        return newExecutionRecordStore(Optional.<ExecutionHistory>absent());
+    }
+
+    private TestExecutionRecordStore newExecutionRecordStore(final Optional<ExecutionHistory> history) {
+        return new TestExecutionRecordStore(new CacheLoader<Long, TestExecutionRecord>() {
+            @Override
+            public TestExecutionRecord load(Long issueId) throws JSONException {
+                if (history.isPresent()) {
+                    return getTestExecutionRecordFor(issueId, history.get());
+                }
+                return getTestExecutionRecordFor(issueId);
+            }
+        });
+    }
+
+    private TestExecutionRecord getTestExecutionRecordFor(Long id) throws JSONException {
+        scheduleRequestCount.incrementAndGet();
+        LatestSchedule latestSchedule = restClient.get(ZephyrMetrics.SCHEDULE, scheduleTarget(id), latestScheduleReader());
+        return converter.executionRecordFrom(latestSchedule);
+    }
+
+    /**
+     * Reads the whole schedule response rather than stopping at the latest schedule, and adds every schedule
+     * to the history.
+     */
+    private TestExecutionRecord getTestExecutionRecordFor(Long id, ExecutionHistory history) throws JSONException {
+        scheduleRequestCount.incrementAndGet();
+        ScheduleHistory scheduleHistory = restClient.get(ZephyrMetrics.SCHEDULE, scheduleTarget(id),
+                                                         scheduleHistoryReader());
+        converter.addSchedulesTo(history, id, scheduleHistory);
+        return converter.executionRecordFrom(scheduleHistory.latestSchedule());
+    }
+
+    private ListenableFuture<TestExecutionRecord> testExecutionRecordForAsync(Long id) {
+        scheduleRequestCount.incrementAndGet();
+        ListenableFuture<LatestSchedule> latestSchedule = restClient.getAsync(ZephyrMetrics.SCHEDULE,
+                                                                              scheduleTarget(id),
+                                                                              latestScheduleReader());
+        return Futures.transform(latestSchedule, new Function<LatestSchedule, TestExecutionRecord>() {
+            @Override
+            public TestExecutionRecord apply(LatestSchedule latestSchedule) {
+                return converter.executionRecordFrom(latestSchedule);
+            }
+        });
+    }
 
+    private WebTarget scheduleTarget(Long id) {
+        return restClient.target(ZEPHYR_REST_API + "/schedule").queryParam("issueId", id);
+    }
+
+    private ZephyrRestClient.ResponseReader<LatestSchedule> latestScheduleReader() {
+        return new ZephyrRestClient.ResponseReader<LatestSchedule>() {
+            @Override
+            public LatestSchedule read(InputStream body) throws IOException {
+                return responseReader.readLatestScheduleFrom(body, converter.knowsExecutionStatuses());
+            }
+        };
+    }
+
+    private ZephyrRestClient.ResponseReader<ScheduleHistory> scheduleHistoryReader() {
+        return new ZephyrRestClient.ResponseReader<ScheduleHistory>() {
+            @Override
+            public ScheduleHistory read(InputStream body) throws IOException {
+                return responseReader.readScheduleHistoryFrom(body);
+            }
+        };
+    }
+
+    private ListenableFuture<List<IssueSummary>> labelsWithMatchingIssuesAsync(IssueSummary issue) {
+        List<ListenableFuture<Optional<IssueSummary>>> lookups = Lists.newArrayList();
+        for(String label : issue.getLabels()) {
+            lookups.add(issueWithKeyAsync(label));
+        }
+        return Futures.transform(Futures.allAsList(lookups),
+                                 new Function<List<Optional<IssueSummary>>, List<IssueSummary>>() {
+            @Override
+            public List<IssueSummary> apply(List<Optional<IssueSummary>> matchingIssues) {
+                return ImmutableList.copyOf(Optional.presentInstances(matchingIssues));
+            }
+        });
+    }
+
+    private ListenableFuture<Optional<IssueSummary>> issueWithKeyAsync(String key) {
+        return issueSummaryCache.issueWithKeyAsync(key, new IssueSummaryCache.AsyncIssueLookup() {
+            @Override
+            public ListenableFuture<Optional<IssueSummary>> findByKey(String key) {
+                return restClient.findByKeyAsync(key);
+            }
+        });
+    }
+
+    /**
+     * Closes the connections the adaptor keeps open to JIRA. The adaptor cannot be used afterwards.
+     * Its threads are daemon threads that stop when idle, so an adaptor left open does not keep the JVM running.
+     */
     @Override
-    public List<TestOutcome> loadOutcomesFrom(File file) throws IOException {
-        return loadOutcomes();
+    public void close() {
+        restClient.close();
+    }
+
+    public ZephyrMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Hit, miss, lookup and eviction counts for the cache of issues referred to by test labels.
+     */
+    public CacheStats getLabelCacheStats() {
+        return issueSummaryCache.stats();
     }
 }
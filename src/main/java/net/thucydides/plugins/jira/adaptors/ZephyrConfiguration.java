@@ -0,0 +1,316 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.thucydides.core.model.TestResult;
+import net.thucydides.core.util.EnvironmentVariables;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zephyr-specific settings, read from the same environment variables and properties files as the JIRA configuration.
+ */
+public class ZephyrConfiguration {
+
+    public static final String PROJECTS = "zephyr.projects";
+    public static final String TEST_QUERY = "zephyr.tests.jql";
+    public static final String PROJECT_PARALLELISM = "zephyr.projects.parallelism";
+    public static final String FETCH_PARALLELISM = "zephyr.fetch.parallelism";
+    public static final String VIRTUAL_THREADS = "zephyr.fetch.virtual.threads";
+    public static final String VIRTUAL_THREAD_FETCHES = "zephyr.fetch.virtual.threads.max.fetches";
+    public static final String BULK_EXECUTIONS = "zephyr.executions.bulk";
+    public static final String STEP_RESULTS = "zephyr.step.results";
+    public static final String EXECUTION_HISTORY = "zephyr.executions.history";
+    public static final String STATUS_NAMES = "zephyr.status.names";
+    public static final String STATUS_IDS = "zephyr.status.ids";
+    public static final String STEP_STATUS_IDS = "zephyr.step.status.ids";
+    public static final String EXECUTION_PAGE_SIZE = "zephyr.executions.page.size";
+    public static final String SNAPSHOTS = "zephyr.snapshots";
+    public static final String SNAPSHOT_MAX_AGE = "zephyr.snapshot.max.age";
+    public static final String INCREMENTAL_SYNC = "zephyr.sync.incremental";
+    public static final String LABEL_CACHE_MAX_SIZE = "zephyr.label.cache.max.size";
+    public static final String LABEL_CACHE_TTL = "zephyr.label.cache.ttl";
+    public static final String LABEL_CACHE_NEGATIVE_TTL = "zephyr.label.cache.negative.ttl";
+    public static final String LABEL_BATCH_SIZE = "zephyr.label.batch.size";
+    public static final String MAX_CONNECTIONS = "zephyr.http.max.connections";
+    public static final String MAX_CONNECTIONS_PER_ROUTE = "zephyr.http.max.connections.per.route";
+    public static final String CONNECT_TIMEOUT = "zephyr.http.connect.timeout";
+    public static final String READ_TIMEOUT = "zephyr.http.read.timeout";
+    public static final String MAX_CONCURRENT_REQUESTS = "zephyr.http.max.concurrent.requests";
+    public static final String MAX_REQUESTS_PER_SECOND = "zephyr.http.max.requests.per.second";
+    public static final String MAX_RETRIES = "zephyr.http.max.retries";
+    public static final String RETRY_BACKOFF = "zephyr.http.retry.backoff";
+    public static final String RETRY_MAX_BACKOFF = "zephyr.http.retry.max.backoff";
+
+    private static final int DEFAULT_PROJECT_PARALLELISM = 4;
+    private static final int DEFAULT_FETCH_PARALLELISM = 4;
+    private static final int DEFAULT_VIRTUAL_THREAD_FETCHES = 100;
+    private static final int DEFAULT_EXECUTION_PAGE_SIZE = 100;
+    private static final int DEFAULT_SNAPSHOT_MAX_AGE_IN_MINUTES = 60;
+    private static final int DEFAULT_LABEL_CACHE_MAX_SIZE = 1000;
+    private static final int DEFAULT_LABEL_CACHE_TTL_IN_SECONDS = 3600;
+    private static final int DEFAULT_LABEL_CACHE_NEGATIVE_TTL_IN_SECONDS = 300;
+    private static final int DEFAULT_LABEL_BATCH_SIZE = 50;
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    private static final int DEFAULT_CONNECT_TIMEOUT_IN_MILLIS = 10000;
+    private static final int DEFAULT_READ_TIMEOUT_IN_MILLIS = 60000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final int DEFAULT_RETRY_BACKOFF_IN_MILLIS = 500;
+    private static final int DEFAULT_RETRY_MAX_BACKOFF_IN_MILLIS = 30000;
+
+    private final EnvironmentVariables environmentVariables;
+
+    public ZephyrConfiguration(EnvironmentVariables environmentVariables) {
+        this.environmentVariables = environmentVariables;
+    }
+
+    /**
+     * The projects to load manual tests from, as a comma-separated list, or the JIRA project if there are none.
+     */
+    public List<String> getProjects() {
+        String projects = environmentVariables.getProperty(PROJECTS, "");
+        return ImmutableList.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(projects));
+    }
+
+    /**
+     * A JQL query that picks out the manual tests to load, in place of the projects.
+     */
+    public Optional<String> getTestQuery() {
+        return Optional.fromNullable(Strings.emptyToNull(environmentVariables.getProperty(TEST_QUERY, "").trim()));
+    }
+
+    /**
+     * How many projects are loaded at the same time. The tests within each project are fetched in parallel as well.
+     */
+    public int getProjectParallelism() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(PROJECT_PARALLELISM, DEFAULT_PROJECT_PARALLELISM));
+    }
+
+    /**
+     * How many manual tests are fetched from JIRA and Zephyr at the same time, on a pool of fetch threads.
+     */
+    public int getFetchParallelism() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(FETCH_PARALLELISM, DEFAULT_FETCH_PARALLELISM));
+    }
+
+    /**
+     * Fetch each manual test on a virtual thread of its own, when the JVM has them.
+     */
+    public boolean isVirtualThreadFetchingActive() {
+        return environmentVariables.getPropertyAsBoolean(VIRTUAL_THREADS, false);
+    }
+
+    /**
+     * How many manual tests are fetched at the same time when fetching on virtual threads.
+     */
+    public int getMaxVirtualThreadFetches() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(VIRTUAL_THREAD_FETCHES,
+                                                                    DEFAULT_VIRTUAL_THREAD_FETCHES));
+    }
+
+    /**
+     * Load the executions of the whole project in pages, rather than requesting the schedule of each test.
+     */
+    public boolean isBulkExecutionLoadingActive() {
+        return environmentVariables.getPropertyAsBoolean(BULK_EXECUTIONS, false);
+    }
+
+    /**
+     * Read the result of each step, at the cost of one more request for each executed test.
+     */
+    public boolean isStepResultLoadingActive() {
+        return environmentVariables.getPropertyAsBoolean(STEP_RESULTS, false);
+    }
+
+    /**
+     * Keep every execution read during a load, not just the latest one, to report on flaky tests.
+     */
+    public boolean isExecutionHistoryActive() {
+        return environmentVariables.getPropertyAsBoolean(EXECUTION_HISTORY, false);
+    }
+
+    /**
+     * The test results for Zephyr status names, as name=result pairs such as "RETEST=FAILURE, N/A=IGNORED".
+     */
+    public Map<String, TestResult> getStatusResultsByName() {
+        return statusResultsFrom(STATUS_NAMES);
+    }
+
+    /**
+     * The test results for Zephyr execution status ids, as id=result pairs that take precedence over names.
+     */
+    public Map<String, TestResult> getStatusResultsById() {
+        return statusResultsByIdFrom(STATUS_IDS);
+    }
+
+    /**
+     * The test results for Zephyr step status ids, in the same form as the execution status ids.
+     */
+    public Map<String, TestResult> getStepStatusResultsById() {
+        return statusResultsByIdFrom(STEP_STATUS_IDS);
+    }
+
+    public int getExecutionPageSize() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(EXECUTION_PAGE_SIZE, DEFAULT_EXECUTION_PAGE_SIZE));
+    }
+
+    /**
+     * Reuse the tests loaded by loadOutcomesFrom(File) from a snapshot in that file while it is recent enough.
+     */
+    public boolean isSnapshotActive() {
+        return environmentVariables.getPropertyAsBoolean(SNAPSHOTS, false);
+    }
+
+    /**
+     * How long a snapshot can be reused before the tests are read from JIRA again, configured in minutes.
+     */
+    public long getSnapshotMaxAgeInMillis() {
+        return TimeUnit.MINUTES.toMillis(environmentVariables.getPropertyAsInteger(SNAPSHOT_MAX_AGE,
+                                                                                   DEFAULT_SNAPSHOT_MAX_AGE_IN_MINUTES));
+    }
+
+    /**
+     * Refresh an out-of-date snapshot with only the tests and executions that changed since it was written.
+     */
+    public boolean isIncrementalSyncActive() {
+        return environmentVariables.getPropertyAsBoolean(INCREMENTAL_SYNC, false);
+    }
+
+    public int getLabelCacheMaximumSize() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(LABEL_CACHE_MAX_SIZE, DEFAULT_LABEL_CACHE_MAX_SIZE));
+    }
+
+    /**
+     * How long, in seconds, the issue a label refers to is cached.
+     */
+    public int getLabelCacheTimeToLiveInSeconds() {
+        return environmentVariables.getPropertyAsInteger(LABEL_CACHE_TTL, DEFAULT_LABEL_CACHE_TTL_IN_SECONDS);
+    }
+
+    /**
+     * How long, in seconds, a label that does not match any issue is remembered.
+     */
+    public int getLabelCacheUnknownIssueTimeToLiveInSeconds() {
+        return environmentVariables.getPropertyAsInteger(LABEL_CACHE_NEGATIVE_TTL,
+                                                         DEFAULT_LABEL_CACHE_NEGATIVE_TTL_IN_SECONDS);
+    }
+
+    /**
+     * How many label issue keys are looked up in a single "key in (...)" query.
+     */
+    public int getLabelBatchSize() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(LABEL_BATCH_SIZE, DEFAULT_LABEL_BATCH_SIZE));
+    }
+
+    /**
+     * How many connections to JIRA are kept open at most, across all servers.
+     */
+    public int getMaxConnections() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+     * How many connections to the JIRA server are kept open at most, at least the fetch parallelism.
+     */
+    public int getMaxConnectionsPerRoute() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(MAX_CONNECTIONS_PER_ROUTE,
+                                                                    DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+    }
+
+    /**
+     * How long to wait for a connection to JIRA to open, in milliseconds. Zero waits for ever.
+     */
+    public int getConnectTimeoutInMillis() {
+        return environmentVariables.getPropertyAsInteger(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * How long to wait for data from JIRA once connected, in milliseconds. Zero waits for ever.
+     */
+    public int getReadTimeoutInMillis() {
+        return environmentVariables.getPropertyAsInteger(READ_TIMEOUT, DEFAULT_READ_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * How many requests are sent to JIRA at the same time at most, by default one per connection.
+     */
+    public int getMaxConcurrentRequests() {
+        return atLeastOne(environmentVariables.getPropertyAsInteger(MAX_CONCURRENT_REQUESTS, getMaxConnectionsPerRoute()));
+    }
+
+    /**
+     * How many requests a second are sent to JIRA at most. Zero, the default, does not limit them.
+     */
+    public double getMaxRequestsPerSecond() {
+        return Math.max(0, Double.parseDouble(environmentVariables.getProperty(MAX_REQUESTS_PER_SECOND, "0")));
+    }
+
+    /**
+     * How many times a request that the server turned away with a 429 or 503 is tried again.
+     */
+    public int getMaxRetries() {
+        return Math.max(0, environmentVariables.getPropertyAsInteger(MAX_RETRIES, DEFAULT_MAX_RETRIES));
+    }
+
+    /**
+     * How long to wait before the first retry, in milliseconds, doubling with each retry after that.
+     */
+    public long getRetryBackoffInMillis() {
+        return Math.max(0, environmentVariables.getPropertyAsInteger(RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF_IN_MILLIS));
+    }
+
+    /**
+     * The longest wait before a retry, in milliseconds, including waits asked for in a Retry-After header.
+     */
+    public long getRetryMaxBackoffInMillis() {
+        return Math.max(0, environmentVariables.getPropertyAsInteger(RETRY_MAX_BACKOFF,
+                                                                     DEFAULT_RETRY_MAX_BACKOFF_IN_MILLIS));
+    }
+
+    private Map<String, TestResult> statusResultsByIdFrom(String property) {
+        Map<String, TestResult> statusResultsById = statusResultsFrom(property);
+        for(String statusId : statusResultsById.keySet()) {
+            try {
+                Integer.parseInt(statusId);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Zephyr status ids are numbers, but " + property
+                                                   + " has \"" + statusId + "\"", e);
+            }
+        }
+        return statusResultsById;
+    }
+
+    private Map<String, TestResult> statusResultsFrom(String property) {
+        Map<String, String> statuses;
+        try {
+            statuses = Splitter.on(',').trimResults().omitEmptyStrings()
+                               .withKeyValueSeparator(Splitter.on('=').trimResults())
+                               .split(environmentVariables.getProperty(property, ""));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Could not read the statuses in " + property, e);
+        }
+        ImmutableMap.Builder<String, TestResult> statusResults = ImmutableMap.builder();
+        for(Map.Entry<String, String> status : statuses.entrySet()) {
+            statusResults.put(status.getKey(), testResultCalled(status.getValue(), property));
+        }
+        return statusResults.build();
+    }
+
+    private TestResult testResultCalled(String name, String property) {
+        try {
+            return TestResult.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown test result \"" + name + "\" in " + property, e);
+        }
+    }
+
+    private int atLeastOne(Integer value) {
+        return Math.max(1, value);
+    }
+}
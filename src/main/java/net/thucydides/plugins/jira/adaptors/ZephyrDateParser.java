@@ -1,37 +1,56 @@
 package net.thucydides.plugins.jira.adaptors;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
 import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
-import java.util.List;
+import java.util.Map;
 
+/**
+ * Parses Zephyr's execution dates, which are either absolute ("26/Jul/13 4:03 PM") or relative to the current day
+ * ("Today 9:13 AM", "Yesterday 9:13 AM", "Sunday 9:13 AM" for the last week).
+ * The relative day names are worked out once, so a parser can be shared between threads for the whole day.
+ */
 public class ZephyrDateParser {
 
-    private final DateTime today;
-    private final DateTime yesterday;
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormat.forPattern("d/MMM/yy hh:mm a");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormat.forPattern("hh:mm a");
+
+    private final LocalDate today;
+    private final Map<String, LocalDate> relativeDays;
 
     public ZephyrDateParser(DateTime today) {
-        this.today = today;
-        this.yesterday = today.minusDays(1);
+        this.today = today.toLocalDate();
+        this.relativeDays = relativeDaysFrom(this.today);
     }
 
-    public DateTime parse(String date) {
-
-        if (date.contains("Today")) {
-            date = date.replace("Today", today.toString(DateTimeFormat.forPattern("d/MMM/yy")));
-        } else if (date.contains("Yesterday")) {
-            date = date.replace("Yesterday", yesterday.toString(DateTimeFormat.forPattern("d/MMM/yy")));
+    private static Map<String, LocalDate> relativeDaysFrom(LocalDate today) {
+        ImmutableMap.Builder<String, LocalDate> relativeDays = ImmutableMap.builder();
+        relativeDays.put("Today", today);
+        relativeDays.put("Yesterday", today.minusDays(1));
+        for(int daysBack = 2; daysBack < 7; daysBack++) {
+            LocalDate aPreviousDay = today.minusDays(daysBack);
+            relativeDays.put(aPreviousDay.dayOfWeek().getAsText(), aPreviousDay);
         }
+        return relativeDays.build();
+    }
 
-        for(int daysBack = 2; daysBack < 7; daysBack++) {
-            DateTime aPreviousDay = today.minusDays(daysBack);
-            String day = aPreviousDay.dayOfWeek().getAsText();
-            if (date.contains(day)) {
-                date = date.replace(day, aPreviousDay.toString(DateTimeFormat.forPattern("d/MMM/yy")));
+    public boolean isRelativeTo(LocalDate day) {
+        return today.equals(day);
+    }
+
+    public DateTime parse(String date) {
+        int endOfFirstWord = date.indexOf(' ');
+        if (endOfFirstWord > 0) {
+            LocalDate relativeDay = relativeDays.get(date.substring(0, endOfFirstWord));
+            if (relativeDay != null) {
+                LocalTime time = TIME_FORMAT.parseLocalTime(date.substring(endOfFirstWord + 1));
+                return relativeDay.toDateTime(time);
             }
         }
-
-        return DateTime.parse(date, DateTimeFormat.forPattern("d/MMM/yy hh:mm a"));
+        return DateTime.parse(date, DATE_TIME_FORMAT);
     }
 }
@@ -0,0 +1,30 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Receives the timing and size of each request the adaptor makes to JIRA and Zephyr.
+ * Implementations are called from several worker threads at once, so they need to be thread-safe.
+ */
+public interface ZephyrMetrics {
+
+    String SEARCH = "search";
+    String ISSUE = "issue";
+    String SCHEDULE = "schedule";
+    String TEST_STEPS = "teststep";
+    String EXECUTION_SEARCH = "executeSearch";
+    String STEP_RESULTS = "stepResult";
+    String STEP_STATUSES = "teststepExecutionStatus";
+
+    /**
+     * A request that returned a valid response.
+     */
+    void requestCompleted(String endpoint, long durationInNanos, long bytesReceived);
+
+    void requestFailed(String endpoint, long durationInNanos);
+
+    /**
+     * Called at the end of each load, whether or not it succeeded.
+     */
+    void loadCompleted(CacheStats labelCacheStats);
+}
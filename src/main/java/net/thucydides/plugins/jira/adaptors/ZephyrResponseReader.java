@@ -0,0 +1,273 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the parts of Zephyr's schedule, test step, step result and step status responses that the adaptor needs straight from the
+ * response stream, without building the whole response as a String or a JSON tree first.
+ * Schedule responses are only read until the latest schedule and the status names have been found, or just
+ * the latest schedule once the statuses are known, unless the whole history of the test is wanted.
+ */
+class ZephyrResponseReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The latest entry in a schedule response, along with the name of its execution status and the status names
+     * keyed by status id, when the status map was read.
+     */
+    static class LatestSchedule {
+        public final boolean isScheduled;
+        public final String executionId;
+        public final String executionStatus;
+        public final String executedOn;
+        public final String statusName;
+        public final Map<String, String> statusNames;
+
+        LatestSchedule(boolean isScheduled,
+                       String executionId,
+                       String executionStatus,
+                       String executedOn,
+                       String statusName,
+                       Map<String, String> statusNames) {
+            this.isScheduled = isScheduled;
+            this.executionId = executionId;
+            this.executionStatus = executionStatus;
+            this.executedOn = executedOn;
+            this.statusName = statusName;
+            this.statusNames = statusNames;
+        }
+    }
+
+    /**
+     * Every entry in a schedule response, latest first, along with the names of all the execution statuses.
+     */
+    static class ScheduleHistory {
+        public final List<Map<String, String>> schedules;
+        public final Map<String, String> statusNames;
+
+        ScheduleHistory(List<Map<String, String>> schedules, Map<String, String> statusNames) {
+            this.schedules = schedules;
+            this.statusNames = statusNames;
+        }
+
+        public LatestSchedule latestSchedule() {
+            return latestScheduleFrom(schedules.isEmpty() ? null : schedules.get(0), statusNames);
+        }
+    }
+
+    /**
+     * A step of a manual test. The id is what the step results of an execution refer to.
+     */
+    static class TestStepDefinition {
+        public final long id;
+        public final String description;
+
+        TestStepDefinition(long id, String description) {
+            this.id = id;
+            this.description = description;
+        }
+    }
+
+    public LatestSchedule readLatestScheduleFrom(InputStream scheduleResponse) throws IOException {
+        return readLatestScheduleFrom(scheduleResponse, false);
+    }
+
+    /**
+     * Once the statuses are known, the status map is skipped, and the response is only read as far as the end
+     * of the schedules.
+     */
+    public LatestSchedule readLatestScheduleFrom(InputStream scheduleResponse, boolean statusesKnown) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(scheduleResponse)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            Map<String, String> statusNames = Maps.newHashMap();
+            Map<String, String> latestSchedule = null;
+            boolean schedulesRead = false;
+            boolean statusesRead = statusesKnown;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (fieldName.equals("schedules")) {
+                    latestSchedule = readFirstEntryOf(parser);
+                    schedulesRead = true;
+                } else if (fieldName.equals("status") && !statusesKnown) {
+                    readStatusNames(parser, statusNames);
+                    statusesRead = true;
+                } else {
+                    parser.skipChildren();
+                }
+                if (schedulesRead && (statusesRead || latestSchedule == null)) {
+                    break;
+                }
+            }
+            return latestScheduleFrom(latestSchedule, statusNames);
+        }
+    }
+
+    public ScheduleHistory readScheduleHistoryFrom(InputStream scheduleResponse) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(scheduleResponse)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            Map<String, String> statusNames = Maps.newHashMap();
+            List<Map<String, String>> schedules = Lists.newArrayList();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (fieldName.equals("schedules")) {
+                    readEntriesOf(parser, schedules);
+                } else if (fieldName.equals("status")) {
+                    readStatusNames(parser, statusNames);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new ScheduleHistory(schedules, statusNames);
+        }
+    }
+
+    /**
+     * A step without any text, which Zephyr gives as a null htmlStep, has an empty description.
+     */
+    public List<TestStepDefinition> readStepsFrom(InputStream stepResponse) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(stepResponse)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+
+            List<TestStepDefinition> steps = Lists.newArrayList();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, String> step = readFlatFieldsOf(parser);
+                steps.add(new TestStepDefinition(idOf(step), Strings.nullToEmpty(step.get("htmlStep"))));
+            }
+            return steps;
+        }
+    }
+
+    /**
+     * Reads the status id of each step of an execution, keyed by step id.
+     */
+    public Map<Long, String> readStepStatusesFrom(InputStream stepResultResponse) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(stepResultResponse)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+
+            Map<Long, String> stepStatuses = Maps.newHashMap();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, String> stepResult = readFlatFieldsOf(parser);
+                if (stepResult.containsKey("stepId") && stepResult.containsKey("status")) {
+                    stepStatuses.put(Long.valueOf(stepResult.get("stepId")), stepResult.get("status"));
+                }
+            }
+            return stepStatuses;
+        }
+    }
+
+    /**
+     * Reads the names of Zephyr's step statuses, keyed by status id, from the list of step statuses.
+     */
+    public Map<String, String> readStepStatusNamesFrom(InputStream stepStatusResponse) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(stepStatusResponse)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+
+            Map<String, String> stepStatusNames = Maps.newHashMap();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, String> stepStatus = readFlatFieldsOf(parser);
+                if (stepStatus.containsKey("id") && stepStatus.containsKey("name")) {
+                    stepStatusNames.put(stepStatus.get("id"), stepStatus.get("name"));
+                }
+            }
+            return stepStatusNames;
+        }
+    }
+
+    private long idOf(Map<String, String> step) throws IOException {
+        try {
+            return Long.parseLong(step.get("id"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected Zephyr response: test step without an id", e);
+        }
+    }
+
+    private static LatestSchedule latestScheduleFrom(Map<String, String> latestSchedule, Map<String, String> statusNames) {
+        if (latestSchedule == null) {
+            return new LatestSchedule(false, null, null, null, null, statusNames);
+        }
+        String executionStatus = latestSchedule.get("executionStatus");
+        return new LatestSchedule(true, latestSchedule.get("id"), executionStatus, latestSchedule.get("executedOn"),
+                                  statusNames.get(executionStatus), statusNames);
+    }
+
+    /**
+     * Reads the first object in an array, and skips the rest of the array.
+     */
+    private Map<String, String> readFirstEntryOf(JsonParser parser) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_ARRAY);
+        Map<String, String> firstEntry = null;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if ((firstEntry == null) && (parser.getCurrentToken() == JsonToken.START_OBJECT)) {
+                firstEntry = readFlatFieldsOf(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return firstEntry;
+    }
+
+    private void readEntriesOf(JsonParser parser, List<Map<String, String>> entries) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                entries.add(readFlatFieldsOf(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Collects the status names, keyed by status id.
+     */
+    private void readStatusNames(JsonParser parser, Map<String, String> statusNames) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String statusId = parser.getCurrentName();
+            parser.nextToken();
+            if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                statusNames.put(statusId, readFlatFieldsOf(parser).get("name"));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the scalar fields of the current object as text, skipping any nested objects or arrays.
+     */
+    private Map<String, String> readFlatFieldsOf(JsonParser parser) throws IOException {
+        Map<String, String> fields = Maps.newHashMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+                fields.put(fieldName, parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return fields;
+    }
+
+    private void expect(JsonToken token, JsonToken expectedToken) throws IOException {
+        if (token != expectedToken) {
+            throw new IOException("Unexpected Zephyr response: expected " + expectedToken + " but found " + token);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package net.thucydides.plugins.jira.adaptors;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.io.CharStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.thucydides.plugins.jira.client.JerseyJiraClient;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import net.thucydides.plugins.jira.service.JIRAConfiguration;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the adaptor's requests to JIRA and Zephyr, and reports how long each one took and how much it returned.
+ * All requests share one client with a pool of keep-alive connections, and every response is closed once read,
+ * so that its connection goes back to the pool.
+ * Requests are paced by a {@link RequestThrottle}, and those the server turns away with a 429 or 503 are tried again.
+ * The asynchronous variants return as soon as the request has been handed to Jersey, and complete their futures
+ * when the response has been read.
+ */
+class ZephyrRestClient implements Closeable {
+
+    private static final String REST_SEARCH = "rest/api/latest/search";
+    private static final String REST_ISSUE = "rest/api/2/issue/";
+    private static final String SEARCH_FIELDS = "key,summary,description,issuetype,labels,fixVersions";
+    private static final long FAILED = -1;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final String jiraUrl;
+    private final ExecutorService asyncRequestExecutor;
+    private final Client httpClient;
+    private final JerseyJiraClient jiraClient;
+    private final ZephyrMetrics metrics;
+    private final RequestThrottle throttle;
+    private final Semaphore requestPermits;
+    private final Queue<AsyncRequest<?>> waitingForPermit = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("zephyr-retry-%d").setDaemon(true).build());
+
+    /**
+     * Reads what is needed from the body of a valid response.
+     */
+    interface ResponseReader<T> {
+        T read(InputStream body) throws IOException, JSONException;
+    }
+
+    ZephyrRestClient(JIRAConfiguration jiraConfiguration, ZephyrConfiguration zephyrConfiguration, ZephyrMetrics metrics) {
+        this.jiraUrl = jiraConfiguration.getJiraUrl();
+        PooledClientFactory clientFactory = new PooledClientFactory(zephyrConfiguration);
+        this.asyncRequestExecutor = clientFactory.newAsyncRequestExecutor();
+        this.httpClient = clientFactory.newClient(jiraConfiguration.getJiraUser(),
+                                                  jiraConfiguration.getJiraPassword(),
+                                                  asyncRequestExecutor);
+        this.jiraClient = new JerseyJiraClient(jiraConfiguration.getJiraUrl(),
+                                               jiraConfiguration.getJiraUser(),
+                                               jiraConfiguration.getJiraPassword(),
+                                               jiraConfiguration.getProject());
+        this.metrics = metrics;
+        this.throttle = new RequestThrottle(zephyrConfiguration);
+        this.requestPermits = new Semaphore(zephyrConfiguration.getMaxConcurrentRequests());
+    }
+
+    public WebTarget target(String path) {
+        return httpClient.target(jiraUrl).path(path);
+    }
+
+    /**
+     * Sends a GET request and reads the response.
+     */
+    public <T> T get(String endpoint, WebTarget target, ResponseReader<T> reader) throws JSONException {
+        return send(endpoint, target, reader, false).get();
+    }
+
+    /**
+     * Sends a GET request without waiting for the response. The response is read on one of Jersey's client threads.
+     */
+    public <T> ListenableFuture<T> getAsync(String endpoint, WebTarget target, ResponseReader<T> reader) {
+        return Futures.transform(sendAsync(endpoint, target, reader, false), new Function<Optional<T>, T>() {
+            @Override
+            public T apply(Optional<T> response) {
+                return response.get();
+            }
+        });
+    }
+
+    public JSONObject getJSONObject(String endpoint, WebTarget target) throws JSONException {
+        return get(endpoint, target, jsonObjectReader());
+    }
+
+    /**
+     * One page of the issues matching a JQL query, as JIRA returns it.
+     */
+    public JSONObject search(String jql, int startAt, int maxResults) throws JSONException {
+        WebTarget target = target(REST_SEARCH).queryParam("jql", jql)
+                                              .queryParam("startAt", startAt)
+                                              .queryParam("maxResults", maxResults)
+                                              .queryParam("expand", "renderedFields")
+                                              .queryParam("fields", SEARCH_FIELDS);
+        return getJSONObject(ZephyrMetrics.SEARCH, target);
+    }
+
+    public ListenableFuture<Optional<IssueSummary>> findByKeyAsync(String key) {
+        WebTarget target = target(REST_ISSUE + key).queryParam("expand", "renderedFields");
+        return Futures.transform(sendAsync(ZephyrMetrics.ISSUE, target, jsonObjectReader(), true),
+                                 new AsyncFunction<Optional<JSONObject>, Optional<IssueSummary>>() {
+            @Override
+            public ListenableFuture<Optional<IssueSummary>> apply(Optional<JSONObject> issue) throws JSONException {
+                if (issue.isPresent()) {
+                    return Futures.immediateFuture(Optional.of(PagedIssueSearch.issueSummaryFrom(issue.get())));
+                }
+                return Futures.immediateFuture(Optional.<IssueSummary>absent());
+            }
+        });
+    }
+
+    /**
+     * The issues on the first page of results for a JQL query.
+     */
+    public List<IssueSummary> findByJQL(String jql) throws JSONException {
+        return PagedIssueSearch.issueSummariesIn(search(jql, 0, getBatchSize()).getJSONArray("issues"));
+    }
+
+    public Integer countByJQL(String jql) throws JSONException {
+        return search(jql, 0, 0).getInt("total");
+    }
+
+    public int getBatchSize() {
+        return jiraClient.getBatchSize();
+    }
+
+    @Override
+    public void close() {
+        retryScheduler.shutdownNow();
+        for(AsyncRequest<?> request = waitingForPermit.poll(); request != null; request = waitingForPermit.poll()) {
+            request.result.setException(new RejectedExecutionException("The client has been closed"));
+        }
+        asyncRequestExecutor.shutdownNow();
+        httpClient.close();
+    }
+
+    /**
+     * Sends a request, waiting and trying again when the server is too busy to answer it.
+     */
+    private <T> Optional<T> send(String endpoint,
+                                 WebTarget target,
+                                 ResponseReader<T> reader,
+                                 boolean missingResourceIsAbsent) throws JSONException {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                throttle.acquire();
+                Attempt<T> result = attemptWithPermit(endpoint, target, reader, missingResourceIsAbsent);
+                if (!result.wasThrottled()) {
+                    throttle.succeeded();
+                    return result.value;
+                }
+                long delay = throttle.throttled(attempt, result.retryAfter);
+                if (!throttle.shouldRetry(attempt)) {
+                    throw gaveUp(target, attempt, result);
+                }
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * However many threads are fetching tests, only a limited number of them wait on JIRA at the same time.
+     */
+    private <T> Attempt<T> attemptWithPermit(String endpoint,
+                                             WebTarget target,
+                                             ResponseReader<T> reader,
+                                             boolean missingResourceIsAbsent) throws JSONException, InterruptedException {
+        requestPermits.acquire();
+        try {
+            return attempt(endpoint, target, reader, missingResourceIsAbsent);
+        } finally {
+            releasePermit();
+        }
+    }
+
+    private <T> Attempt<T> attempt(String endpoint,
+                                   WebTarget target,
+                                   ResponseReader<T> reader,
+                                   boolean missingResourceIsAbsent) throws JSONException {
+        long startTime = System.nanoTime();
+        long bytesReceived = FAILED;
+        try {
+            Attempt<T> attempt = attemptFrom(target.request().get(), reader, missingResourceIsAbsent);
+            bytesReceived = attempt.bytesReceived;
+            return attempt;
+        } finally {
+            record(endpoint, startTime, bytesReceived);
+        }
+    }
+
+    private <T> Attempt<T> attemptFrom(Response response,
+                                       ResponseReader<T> reader,
+                                       boolean missingResourceIsAbsent) throws JSONException {
+        try {
+            if (isThrottled(response)) {
+                return Attempt.throttled(response.getStatus(),
+                                         Optional.fromNullable(response.getHeaderString(HttpHeaders.RETRY_AFTER)));
+            }
+            if (missingResourceIsAbsent && resourceDoesNotExist(response)) {
+                return Attempt.of(Optional.<T>absent(), 0);
+            }
+            jiraClient.checkValid(response);
+            CountingInputStream body = new CountingInputStream(response.readEntity(InputStream.class));
+            T result = reader.read(body);
+            return Attempt.of(Optional.of(result), body.getCount());
+        } catch (IOException e) {
+            throw new JSONException(e);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * A request sent with Jersey's asynchronous invoker once it has a permit, scheduling its waits rather than sleeping.
+     */
+    private class AsyncRequest<T> {
+        private final String endpoint;
+        private final WebTarget target;
+        private final ResponseReader<T> reader;
+        private final boolean missingResourceIsAbsent;
+        private final SettableFuture<Optional<T>> result = SettableFuture.create();
+
+        AsyncRequest(String endpoint, WebTarget target, ResponseReader<T> reader, boolean missingResourceIsAbsent) {
+            this.endpoint = endpoint;
+            this.target = target;
+            this.reader = reader;
+            this.missingResourceIsAbsent = missingResourceIsAbsent;
+        }
+
+        private volatile int queuedAttempt;
+
+        void sendWhenAllowed(int attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            if (requestPermits.tryAcquire()) {
+                sendWithPermit(attempt);
+            } else {
+                queuedAttempt = attempt;
+                waitingForPermit.add(this);
+                sendWaitingRequests();
+            }
+        }
+
+        private void sendWithPermit(final int attempt) {
+            if (result.isDone()) {
+                releasePermit();
+                return;
+            }
+            long wait = throttle.tryAcquire();
+            if (wait > 0) {
+                sendWithPermitLater(attempt, wait);
+                return;
+            }
+            final long startTime = System.nanoTime();
+            try {
+                target.request().async().get(new InvocationCallback<Response>() {
+                    @Override
+                    public void completed(Response response) {
+                        try {
+                            received(attempt, startTime, response);
+                        } finally {
+                            releasePermit();
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable failure) {
+                        releasePermit();
+                        record(endpoint, startTime, FAILED);
+                        result.setException(failure);
+                    }
+                });
+            } catch (RuntimeException e) {
+                releasePermit();
+                record(endpoint, startTime, FAILED);
+                result.setException(e);
+            }
+        }
+
+        private void received(int attempt, long startTime, Response response) {
+            long bytesReceived = FAILED;
+            try {
+                Attempt<T> outcome = attemptFrom(response, reader, missingResourceIsAbsent);
+                bytesReceived = outcome.bytesReceived;
+                if (!outcome.wasThrottled()) {
+                    throttle.succeeded();
+                    result.set(outcome.value);
+                    return;
+                }
+                long delay = throttle.throttled(attempt, outcome.retryAfter);
+                if (throttle.shouldRetry(attempt)) {
+                    sendLater(attempt + 1, delay);
+                } else {
+                    result.setException(gaveUp(target, attempt, outcome));
+                }
+            } catch (JSONException | RuntimeException e) {
+                result.setException(e);
+            } finally {
+                record(endpoint, startTime, bytesReceived);
+            }
+        }
+
+        private void sendLater(final int attempt, long delayInMillis) {
+            try {
+                retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendWhenAllowed(attempt);
+                    }
+                }, delayInMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException closed) {
+                result.setException(closed);
+            }
+        }
+
+        /**
+         * Keeps hold of the permit while waiting for the throttle, so that the request keeps its place.
+         */
+        private void sendWithPermitLater(final int attempt, long delayInMillis) {
+            try {
+                retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendWithPermit(attempt);
+                    }
+                }, delayInMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException closed) {
+                releasePermit();
+                result.setException(closed);
+            }
+        }
+    }
+
+    private void releasePermit() {
+        requestPermits.release();
+        sendWaitingRequests();
+    }
+
+    /**
+     * Hands free permits to queued requests. This runs whenever a permit is released and whenever a request
+     * is queued, so a permit released just before a request was queued is not missed.
+     */
+    private void sendWaitingRequests() {
+        while (!waitingForPermit.isEmpty() && requestPermits.tryAcquire()) {
+            AsyncRequest<?> next = waitingForPermit.poll();
+            if (next == null) {
+                requestPermits.release();
+            } else {
+                next.sendWithPermit(next.queuedAttempt);
+            }
+        }
+    }
+
+    /**
+     * The outcome of a single try at a request: either what was read from the response,
+     * or the status and Retry-After header of a server that turned it away.
+     */
+    private static class Attempt<T> {
+        private final Optional<T> value;
+        private final int status;
+        private final Optional<String> retryAfter;
+        private final long bytesReceived;
+
+        private Attempt(Optional<T> value, int status, Optional<String> retryAfter, long bytesReceived) {
+            this.value = value;
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.bytesReceived = bytesReceived;
+        }
+
+        static <T> Attempt<T> of(Optional<T> value, long bytesReceived) {
+            return new Attempt<>(value, Response.Status.OK.getStatusCode(), Optional.<String>absent(), bytesReceived);
+        }
+
+        static <T> Attempt<T> throttled(int status, Optional<String> retryAfter) {
+            return new Attempt<>(Optional.<T>absent(), status, retryAfter, FAILED);
+        }
+
+        boolean wasThrottled() {
+            return isThrottledStatus(status);
+        }
+    }
+
+    private static boolean isThrottled(Response response) {
+        return isThrottledStatus(response.getStatus());
+    }
+
+    private static boolean isThrottledStatus(int status) {
+        return (status == TOO_MANY_REQUESTS) || (status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+    }
+
+    private JSONException gaveUp(WebTarget target, int attempt, Attempt<?> lastAttempt) {
+        return new JSONException("Gave up on " + target.getUri() + " after " + (attempt + 1)
+                                 + " attempts: the server is too busy (HTTP " + lastAttempt.status + ")");
+    }
+
+    private <T> ListenableFuture<Optional<T>> sendAsync(String endpoint,
+                                                        WebTarget target,
+                                                        ResponseReader<T> reader,
+                                                        boolean missingResourceIsAbsent) {
+        AsyncRequest<T> request = new AsyncRequest<>(endpoint, target, reader, missingResourceIsAbsent);
+        request.sendWhenAllowed(0);
+        return request.result;
+    }
+
+    private boolean resourceDoesNotExist(Response response) {
+        return (response.getStatus() == Response.Status.NOT_FOUND.getStatusCode())
+               || (response.getStatus() == Response.Status.BAD_REQUEST.getStatusCode());
+    }
+
+    private ResponseReader<JSONObject> jsonObjectReader() {
+        return new ResponseReader<JSONObject>() {
+            @Override
+            public JSONObject read(InputStream body) throws IOException, JSONException {
+                return new JSONObject(CharStreams.toString(new InputStreamReader(body, Charsets.UTF_8)));
+            }
+        };
+    }
+
+    private void record(String endpoint, long startTime, long bytesReceived) {
+        long duration = System.nanoTime() - startTime;
+        if (bytesReceived == FAILED) {
+            metrics.requestFailed(endpoint, duration);
+        } else {
+            metrics.requestCompleted(endpoint, duration, bytesReceived);
+        }
+    }
+}
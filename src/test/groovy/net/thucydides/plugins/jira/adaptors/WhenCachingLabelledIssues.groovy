@@ -0,0 +1,133 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.base.Optional
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.SettableFuture
+import net.thucydides.plugins.jira.domain.IssueSummary
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class WhenCachingLabelledIssues extends Specification {
+
+    def story = new IssueSummary(new URI("http://jira/rest/api/2/issue/10001"), 10001L, "PAV-1", "Some story",
+                                 "", [:], "Story")
+
+    def "should remember issues that have been looked up"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+        when:
+            cache.put("PAV-1", Optional.of(story))
+        then:
+            cache.cachedIssueWithKey("PAV-1") == Optional.of(Optional.of(story))
+    }
+
+    def "should remember labels that do not match an issue"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+        when:
+            cache.put("regression", Optional.absent())
+        then:
+            cache.cachedIssueWithKey("regression") == Optional.of(Optional.absent())
+    }
+
+    def "should forget unknown labels separately from known issues"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 0)
+        when:
+            cache.put("PAV-1", Optional.of(story))
+            cache.put("regression", Optional.absent())
+        then:
+            cache.cachedIssueWithKey("PAV-1").isPresent()
+            !cache.cachedIssueWithKey("regression").isPresent()
+    }
+
+    def "should evict entries beyond the maximum size"() {
+        given:
+            def cache = new IssueSummaryCache(2, 3600, 300)
+        when:
+            (1..5).each { cache.put("PAV-$it".toString(), Optional.of(story)) }
+        then:
+            cache.stats().evictionCount() == 3
+    }
+
+    def "should count cache hits and misses"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+            cache.put("PAV-1", Optional.of(story))
+        when:
+            cache.cachedIssueWithKey("PAV-1")
+            cache.cachedIssueWithKey("PAV-1")
+            cache.cachedIssueWithKey("PAV-2")
+        then:
+            cache.stats().hitCount() == 2
+            cache.stats().missCount() == 1
+    }
+
+    def "should only look up an issue once when several threads ask for it at the same time"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+            def lookupCount = new AtomicInteger()
+            def pendingLookup = SettableFuture.create()
+            def slowLookup = { key -> lookupCount.incrementAndGet(); pendingLookup } as IssueSummaryCache.AsyncIssueLookup
+            def allAsking = new CountDownLatch(8)
+        when:
+            def executor = Executors.newFixedThreadPool(8)
+            def results = (1..8).collect {
+                executor.submit({ allAsking.countDown(); cache.issueWithKeyAsync("PAV-1", slowLookup) } as Callable)
+            }
+            allAsking.await()
+            def lookups = results*.get()
+            pendingLookup.set(Optional.of(story))
+        then:
+            lookups.every { it.get() == Optional.of(story) }
+            lookupCount.get() == 1
+            cache.stats().loadCount() == 1
+        cleanup:
+            executor.shutdown()
+    }
+
+    def "should share an asynchronous lookup with everyone asking for the same key"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+            def lookupCount = new AtomicInteger()
+            def pendingLookup = SettableFuture.create()
+            def asyncLookup = { key -> lookupCount.incrementAndGet(); pendingLookup } as IssueSummaryCache.AsyncIssueLookup
+        when:
+            def results = (1..5).collect { cache.issueWithKeyAsync("PAV-1", asyncLookup) }
+            pendingLookup.set(Optional.of(story))
+        then:
+            results.every { it.get() == Optional.of(story) }
+            lookupCount.get() == 1
+            cache.issueWithKeyAsync("PAV-1", asyncLookup).get() == Optional.of(story)
+            lookupCount.get() == 1
+    }
+
+    def "should look a key up again after an asynchronous lookup failed"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+            def failedLookup = { key -> Futures.immediateFailedFuture(new IllegalStateException()) }
+        when:
+            cache.issueWithKeyAsync("PAV-1", failedLookup as IssueSummaryCache.AsyncIssueLookup).get()
+        then:
+            thrown(ExecutionException)
+            !cache.contains("PAV-1")
+    }
+
+    def "should count successful and failed lookups separately"() {
+        given:
+            def cache = new IssueSummaryCache(100, 3600, 300)
+            def lookup = { key -> key == "PAV-3" ? Futures.immediateFailedFuture(new IllegalStateException())
+                                                 : Futures.immediateFuture(Optional.of(story)) }
+        when:
+            ["PAV-1", "PAV-2", "PAV-3"].each { cache.issueWithKeyAsync(it, lookup as IssueSummaryCache.AsyncIssueLookup) }
+        then:
+            cache.stats().loadSuccessCount() == 2
+            cache.stats().loadExceptionCount() == 1
+            cache.stats().loadCount() == 3
+    }
+}
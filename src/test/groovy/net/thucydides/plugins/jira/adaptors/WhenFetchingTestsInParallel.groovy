@@ -0,0 +1,81 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.base.Function
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class WhenFetchingTestsInParallel extends Specification {
+
+    ZephyrStandIn standIn
+    def runningFetches = new AtomicInteger()
+    def maximumRunningFetches = new AtomicInteger()
+
+    def slowFetch = { Integer item ->
+        int running = runningFetches.incrementAndGet()
+        synchronized (maximumRunningFetches) {
+            maximumRunningFetches.set(Math.max(maximumRunningFetches.get(), running))
+        }
+        Thread.sleep(20)
+        runningFetches.decrementAndGet()
+        item * 10
+    } as Function
+
+    def cleanup() {
+        standIn?.stop()
+    }
+
+    def "should hand the results over in the order of the items"() {
+        given:
+            def fetcher = new OrderedParallelFetcher(4, threadPerFetch)
+            def results = []
+        when:
+            fetcher.fetchInOrder((1..30).iterator(), slowFetch, { results << it } as ResultHandler)
+        then:
+            results == (1..30).collect { it * 10 }
+        where:
+            threadPerFetch << [false, true]
+    }
+
+    def "should run each fetch on a thread of its own, virtual when the JVM has them"() {
+        given:
+            def fetcher = new OrderedParallelFetcher(4, true)
+            def fetchThreads = Collections.synchronizedSet([] as Set)
+            def recordThread = { Integer item -> fetchThreads << Thread.currentThread(); item } as Function
+        when:
+            fetcher.fetchInOrder((1..10).iterator(), recordThread, { } as ResultHandler)
+        then:
+            fetchThreads.every { thread ->
+                Thread.metaClass.respondsTo(thread, "isVirtual") ? thread.isVirtual() : thread.name.startsWith("zephyr-fetch-")
+            }
+    }
+
+    def "should fetch from a server on a thread per fetch, in order and no more at once than the limit"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 60, latencyInMillis: 20).start()
+            def fetcher = new OrderedParallelFetcher(12, true)
+            def fetchSteps = { Integer test ->
+                new URL("${standIn.url}/rest/zephyr/1.0/teststep/${standIn.testId(test)}").text
+                test
+            } as Function
+            def results = []
+        when:
+            fetcher.fetchInOrder((0..<60).iterator(), fetchSteps, { results << it } as ResultHandler)
+        then:
+            results == (0..<60).toList()
+            standIn.maximumConcurrentRequests.get() > 4
+            standIn.maximumConcurrentRequests.get() <= 12
+    }
+
+    def "should not run more fetches at once than the parallelism"() {
+        given:
+            def fetcher = new OrderedParallelFetcher(3, threadPerFetch)
+        when:
+            fetcher.fetchInOrder((1..30).iterator(), slowFetch, { } as ResultHandler)
+        then:
+            maximumRunningFetches.get() > 1
+            maximumRunningFetches.get() <= 3
+        where:
+            threadPerFetch << [false, true]
+    }
+}
@@ -0,0 +1,66 @@
+package net.thucydides.plugins.jira.adaptors
+
+import net.thucydides.core.model.TestResult
+import spock.lang.Specification
+
+class WhenKeepingTheExecutionHistory extends Specification {
+
+    static final byte PASS = 1
+    static final byte FAIL = 2
+
+    def history = new ExecutionHistory()
+
+    def setup() {
+        history.registerStatus(PASS, "PASS", TestResult.SUCCESS)
+        history.registerStatus(FAIL, "FAIL", TestResult.FAILURE)
+    }
+
+    def "should follow each test's executions in execution order, whatever order they were added in"() {
+        given:
+            history.add(10002L, 7L, FAIL, 3000L)
+            history.add(10001L, 3L, PASS, 1000L)
+            history.add(10002L, 5L, PASS, 2000L)
+            history.add(10001L, 4L, FAIL, 1000L)
+            history.add(10001L, 2L, PASS, 1000L)
+            history.add(10003L, 9L, PASS, ExecutionHistory.NOT_EXECUTED)
+        expect:
+            // test 10001 passed, passed, then failed
+            history.trendOf(10001L).executionCount == 3
+            history.trendOf(10001L).passCount == 2
+            history.trendOf(10001L).flakiness == 0.5
+        and:
+            history.trendOf(10002L).flakiness == 1.0
+            history.trendOf(10003L).executionCount == 0
+            history.trendOf(10000L).executionCount == 0
+        and:
+            history.trends().keySet() as List == [10001L, 10002L]
+    }
+
+    def "should take executions added after a trend was read into account"() {
+        given:
+            history.add(10001L, 1L, PASS, 1000L)
+            def firstTrend = history.trendOf(10001L)
+        when:
+            history.add(10001L, 2L, FAIL, 2000L)
+        then:
+            firstTrend.executionCount == 1
+            history.trendOf(10001L).executionCount == 2
+            history.trendOf(10001L).passRate == 0.5
+    }
+
+    def "should give the same trends one test at a time as all at once"() {
+        given:
+            def random = new Random(42)
+            (1..2000).each { execution ->
+                history.add(10001L + random.nextInt(50), execution, random.nextBoolean() ? PASS : FAIL, execution)
+            }
+        when:
+            def trends = history.trends()
+        then:
+            trends.size() == 50
+            trends.every { issueId, trend ->
+                def singleTrend = history.trendOf(issueId)
+                singleTrend.executionCount == trend.executionCount && singleTrend.flakiness == trend.flakiness
+            }
+    }
+}
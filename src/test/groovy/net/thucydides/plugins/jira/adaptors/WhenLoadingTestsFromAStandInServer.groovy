@@ -0,0 +1,575 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.base.Optional
+import net.thucydides.core.model.TestResult
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.service.SystemPropertiesJIRAConfiguration
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class WhenLoadingTestsFromAStandInServer extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def environmentVariables = new MockEnvironmentVariables()
+    ZephyrStandIn standIn
+    List<ZephyrAdaptor> adaptors = []
+
+    def cleanup() {
+        adaptors*.close()
+        standIn?.stop()
+    }
+
+    def adaptorFor(ZephyrStandIn standIn) {
+        environmentVariables.setProperty('jira.url', standIn.url)
+        environmentVariables.setProperty('jira.username', 'bruce')
+        environmentVariables.setProperty('jira.password', 'secret')
+        environmentVariables.setProperty('jira.project', standIn.project)
+        def adaptor = new ZephyrAdaptor(new SystemPropertiesJIRAConfiguration(environmentVariables), environmentVariables)
+        adaptors << adaptor
+        adaptor
+    }
+
+    def "should load every manual test in the project"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 120, storyCount: 7).start()
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes.size() == 120
+            outcomes.every { it.isManual() }
+            outcomes*.title == (0..<120).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+    }
+
+    def "should hand each manual test outcome to a handler as it is loaded"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 30, storyCount: 3).start()
+            def streamedOutcomes = []
+        when:
+            adaptorFor(standIn).loadOutcomes({ outcome -> streamedOutcomes << outcome } as TestOutcomeHandler)
+        then:
+            streamedOutcomes*.title == (0..<30).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+    }
+
+    def "should only request the Zephyr schedule of each manual test once per load"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 30, storyCount: 3, descopedTests: [3, 7]).start()
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 30
+    }
+
+    def "should read the results, steps and stories of the synthetic tests"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 3).start()
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes[0].result == TestResult.SUCCESS
+            outcomes[1].result == TestResult.FAILURE
+            outcomes[3].result == TestResult.SKIPPED
+            outcomes[4].result == TestResult.PENDING
+        and:
+            outcomes[2].testSteps.size() == 2
+            outcomes[2].userStory.name == standIn.storyNameOf(2)
+    }
+
+    def "should read the same results when the executions are loaded in bulk"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 45, storyCount: 5).start()
+            def outcomesLoadedPerTest = adaptorFor(standIn).loadOutcomes()
+        when:
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, 'true')
+            environmentVariables.setProperty(ZephyrConfiguration.EXECUTION_PAGE_SIZE, '10')
+            def outcomesLoadedInBulk = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomesLoadedInBulk*.result == outcomesLoadedPerTest*.result
+            outcomesLoadedInBulk*.startTime == outcomesLoadedPerTest*.startTime
+    }
+
+    def "should read the result of each step when asked to"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.STEP_RESULTS, 'true')
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            // test 13 failed in its last step, and passed the two before it
+            outcomes[13].testSteps*.result == [TestResult.SUCCESS, TestResult.SUCCESS, TestResult.FAILURE]
+            outcomes[13].result == TestResult.FAILURE
+            outcomes[2].testSteps*.result == [TestResult.PENDING, TestResult.PENDING]
+        and:
+            standIn.requestsTo("/rest/zephyr/1.0/stepResult") == (0..<20).count { standIn.isExecuted(it) }
+    }
+
+    def "should map custom step statuses like the execution statuses"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2, retestedTests: [13]).start()
+            environmentVariables.setProperty(ZephyrConfiguration.STEP_RESULTS, 'true')
+            environmentVariables.setProperty(property, mapping)
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes[13].testSteps*.result == [retestResult, TestResult.SUCCESS, TestResult.FAILURE]
+            standIn.requestsTo("/rest/zephyr/1.0/util/teststepExecutionStatus") == 1
+        where:
+            property                            | mapping          | retestResult
+            ZephyrConfiguration.STATUS_NAMES    | "RETEST=FAILURE" | TestResult.FAILURE
+            ZephyrConfiguration.STEP_STATUS_IDS | "5=SKIPPED"      | TestResult.SKIPPED
+            ZephyrConfiguration.STATUS_IDS      | "5=SKIPPED"      | TestResult.PENDING
+    }
+
+    def "should read the same step results when the executions are loaded in bulk"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 30, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.STEP_RESULTS, 'true')
+            def outcomesLoadedPerTest = adaptorFor(standIn).loadOutcomes()
+        when:
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, 'true')
+            def outcomesLoadedInBulk = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomesLoadedInBulk.collect { it.testSteps*.result } == outcomesLoadedPerTest.collect { it.testSteps*.result }
+            standIn.requestsTo("/rest/zephyr/1.0/stepResult") == 2 * (0..<30).count { standIn.isExecuted(it) }
+    }
+
+    def "should give every step the result of the execution unless asked for step results"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2).start()
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes[13].testSteps*.result == [TestResult.FAILURE] * 3
+            standIn.requestsTo("/rest/zephyr/1.0/stepResult") == 0
+    }
+
+    def "should keep every execution of each test in history mode"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 12, storyCount: 2, executionsPerTest: 3).start()
+            environmentVariables.setProperty(ZephyrConfiguration.EXECUTION_HISTORY, 'true')
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, "$bulk")
+            def adaptor = adaptorFor(standIn)
+        when:
+            def outcomes = adaptor.loadOutcomes()
+            def trends = adaptor.executionHistory.trends()
+        then:
+            adaptor.executionHistory.size() == 3 * (0..<12).count { standIn.isExecuted(it) }
+            outcomes[0].result == TestResult.SUCCESS
+            outcomes[6].result == TestResult.PENDING
+        and:
+            // test 0 is flaky: it passed, failed, then passed
+            trends[standIn.testId(0)].executionCount == 3
+            trends[standIn.testId(0)].passCount == 2
+            trends[standIn.testId(0)].flakiness == 1.0
+        and:
+            // test 1 failed every time
+            trends[standIn.testId(1)].passRate == 0
+            trends[standIn.testId(1)].flakiness == 0
+        and:
+            !trends.containsKey(standIn.testId(4))
+        where:
+            bulk << [false, true]
+    }
+
+    def "should not keep the execution history unless asked to"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 2, executionsPerTest: 3).start()
+            def adaptor = adaptorFor(standIn)
+        when:
+            adaptor.loadOutcomes()
+        then:
+            adaptor.executionHistory.size() == 0
+    }
+
+    def "should load several projects into one list of outcomes"() {
+        given:
+            standIn = new ZephyrStandIn(projects: ["SYN", "ALT", "OPS"], testCount: 15, storyCount: 3).start()
+            environmentVariables.setProperty(ZephyrConfiguration.PROJECTS, "SYN, ALT, OPS")
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, "$bulk")
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes*.title == (0..<45).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+            outcomes[17].result == TestResult.FAILURE
+            outcomes[31].userStory.name == standIn.storyNameOf(31)
+        and:
+            standIn.requestsTo("/rest/api/2/issue") == 1    // the "regression" label, looked up once for all of them
+        where:
+            bulk << [false, true]
+    }
+
+    def "should load the projects at the same time"() {
+        given:
+            standIn = new ZephyrStandIn(projects: ["SYN", "ALT", "OPS"], testCount: 8, storyCount: 2,
+                                        latencyInMillis: 50).start()
+            environmentVariables.setProperty(ZephyrConfiguration.PROJECTS, "SYN,ALT,OPS")
+            environmentVariables.setProperty(ZephyrConfiguration.FETCH_PARALLELISM, '1')
+            environmentVariables.setProperty(ZephyrConfiguration.PROJECT_PARALLELISM, '1')
+            adaptorFor(standIn).loadOutcomes()
+            def oneProjectAtATime = standIn.maximumConcurrentProjects.getAndSet(0)
+        when:
+            environmentVariables.setProperty(ZephyrConfiguration.PROJECT_PARALLELISM, '3')
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes.size() == 24
+            oneProjectAtATime == 1
+            standIn.maximumConcurrentProjects.get() > 1
+    }
+
+    def "should load the tests picked out by a JQL query"() {
+        given:
+            standIn = new ZephyrStandIn(projects: ["SYN", "ALT", "OPS"], testCount: 10, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.TEST_QUERY, "project in (ALT, OPS)")
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, 'true')
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes*.title == (10..<30).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+        and:
+            // executions can only be searched for by project, so each schedule is read on its own
+            standIn.requestsTo("/rest/zephyr/latest/zql/executeSearch") == 0
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 20
+    }
+
+    def "should keep the ordering of a JQL query"() {
+        given:
+            standIn = new ZephyrStandIn(projects: ["SYN", "ALT", "OPS"], testCount: 10, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.TEST_QUERY, "project in (ALT, OPS) ORDER BY key DESC")
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes*.title == (29..10).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+    }
+
+    def "should hand over the tests of each project as they are read rather than once the project is loaded"() {
+        given:
+            standIn = new ZephyrStandIn(projects: ["SYN", "ALT"], testCount: 300, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.PROJECTS, "SYN, ALT")
+            def adaptor = adaptorFor(standIn)
+            Integer schedulesReadBeforeFirstOutcome = null
+            Integer schedulesReadWhileHandlerWaited = null
+        when:
+            adaptor.loadOutcomes({ outcome ->
+                if (schedulesReadBeforeFirstOutcome == null) {
+                    schedulesReadBeforeFirstOutcome = standIn.requestsTo("/rest/zephyr/1.0/schedule")
+                    Thread.sleep(1000)
+                    schedulesReadWhileHandlerWaited = standIn.requestsTo("/rest/zephyr/1.0/schedule")
+                }
+            } as TestOutcomeHandler)
+        then:
+            schedulesReadBeforeFirstOutcome < 300
+            // each project gets no more than a search page of tests, and the ones being fetched, ahead of the handler
+            schedulesReadWhileHandlerWaited <= 2 * (adaptor.restClient.batchSize + 10)
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 600
+    }
+
+    def "should report custom results for the configured statuses"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.STATUS_NAMES, "BLOCKED=FAILURE")
+            environmentVariables.setProperty(ZephyrConfiguration.STATUS_IDS, "3=FAILURE")
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, "$bulk")
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes[0].result == TestResult.SUCCESS
+            outcomes[2].result == TestResult.FAILURE    // WIP, status 3
+            outcomes[3].result == TestResult.FAILURE    // BLOCKED
+        where:
+            bulk << [false, true]
+    }
+
+    def "should keep a snapshot inside the directory it is given"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.SNAPSHOTS, 'true')
+            def directory = temporaryFolder.newFolder()
+            def adaptor = adaptorFor(standIn)
+        when:
+            def outcomes = adaptor.loadOutcomesFrom(directory)
+            def outcomesFromSnapshot = adaptor.loadOutcomesFrom(directory)
+        then:
+            outcomes.size() == 10
+            outcomesFromSnapshot*.title == outcomes*.title
+            new File(directory, ManualTestSnapshot.FILE_NAME).isFile()
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 10
+    }
+
+    def "should not reuse a snapshot of another query or status mapping"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.SNAPSHOTS, 'true')
+            def directory = temporaryFolder.newFolder()
+            adaptorFor(standIn).loadOutcomesFrom(directory)
+        when:
+            environmentVariables.setProperty(ZephyrConfiguration.STATUS_NAMES, "BLOCKED=FAILURE")
+            def outcomes = adaptorFor(standIn).loadOutcomesFrom(directory)
+        then:
+            outcomes[3].result == TestResult.FAILURE    // BLOCKED
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 20
+    }
+
+    def "should always load from JIRA unless snapshots are active"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 2).start()
+            def directory = temporaryFolder.newFolder()
+            def adaptor = adaptorFor(standIn)
+        when:
+            adaptor.loadOutcomesFrom(directory)
+            def outcomes = adaptor.loadOutcomesFrom(directory)
+        then:
+            outcomes.size() == 10
+            directory.listFiles().length == 0
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 20
+    }
+
+    def "should keep the step results of the executions refreshed by an incremental sync"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2).start()
+            environmentVariables.setProperty(ZephyrConfiguration.STEP_RESULTS, 'true')
+            environmentVariables.setProperty(ZephyrConfiguration.SNAPSHOTS, 'true')
+            environmentVariables.setProperty(ZephyrConfiguration.INCREMENTAL_SYNC, 'true')
+            environmentVariables.setProperty(ZephyrConfiguration.SNAPSHOT_MAX_AGE, '0')
+            def directory = temporaryFolder.newFolder()
+            def adaptor = adaptorFor(standIn)
+            def executedTests = (0..<20).count { standIn.isExecuted(it) }
+        when:
+            def outcomes = adaptor.loadOutcomesFrom(directory)
+            Thread.sleep(10)
+            def syncedOutcomes = adaptor.loadOutcomesFrom(directory)
+        then:
+            syncedOutcomes[13].testSteps*.result == [TestResult.SUCCESS, TestResult.SUCCESS, TestResult.FAILURE]
+            syncedOutcomes.collect { it.testSteps*.result } == outcomes.collect { it.testSteps*.result }
+        and:
+            standIn.requestsTo("/rest/zephyr/1.0/teststep") == 20
+            standIn.requestsTo("/rest/zephyr/1.0/stepResult") == 2 * executedTests
+    }
+
+    def "should load from JIRA without touching a file that is not a snapshot"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 2).start()
+            def notes = temporaryFolder.newFile("notes.txt")
+            notes.text = "Some manual test notes"
+            environmentVariables.setProperty(ZephyrConfiguration.SNAPSHOTS, 'true')
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomesFrom(notes)
+        then:
+            outcomes.size() == 10
+            notes.text == "Some manual test notes"
+            notes.parentFile.listFiles().length == 1
+    }
+
+    def "should leave out descoped tests"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2, descopedTests: [3, 7, 11]).start()
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, "$bulk")
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes*.title == ((0..<20) - [3, 7, 11]).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+        where:
+            bulk << [false, true]
+    }
+
+    def "should not look up the steps of tests already known to be descoped"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2, descopedTests: [3, 7, 11]).start()
+            environmentVariables.setProperty(ZephyrConfiguration.BULK_EXECUTIONS, 'true')
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            standIn.requestsTo("/rest/zephyr/1.0/teststep") == 17
+    }
+
+    def "should look up the stories in batches rather than one label at a time"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 60, storyCount: 20).start()
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            standIn.requestsTo("/rest/api/2/issue") == 1    // the "regression" label, looked up once
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 60
+    }
+
+    def "should only look up the stories JIRA no longer knows one label at a time"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 60, storyCount: 20, deletedStories: [5]).start()
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            standIn.requestsTo("/rest/api/2/issue") == 2    // the "regression" label and the deleted story
+            outcomes[6].userStory.name == standIn.storyNameOf(6)
+            outcomes[26].userStory.name == standIn.storyNameOf(26)
+    }
+
+    def "should fetch several tests at the same time from a slow server"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 40, latencyInMillis: 20).start()
+            environmentVariables.setProperty(ZephyrConfiguration.FETCH_PARALLELISM, '8')
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            standIn.maximumConcurrentRequests.get() > 1
+    }
+
+    def "should fetch each test on a thread of its own while limiting the requests sent at the same time"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 100, storyCount: 5, latencyInMillis: 10).start()
+            environmentVariables.setProperty(ZephyrConfiguration.VIRTUAL_THREADS, 'true')
+            environmentVariables.setProperty(ZephyrConfiguration.VIRTUAL_THREAD_FETCHES, '50')
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_CONCURRENT_REQUESTS, '5')
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes*.title == (0..<100).collect { "Manual test - Manual test $it (${standIn.testKey(it)})" }
+            standIn.maximumConcurrentRequests.get() > 1
+            standIn.maximumConcurrentRequests.get() <= 5
+    }
+
+    def "should reuse connections from a pool rather than connecting for each request"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 50).start()
+            environmentVariables.setProperty(ZephyrConfiguration.FETCH_PARALLELISM, '4')
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_CONNECTIONS_PER_ROUTE, '6')
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") == 50
+            standIn.connectionCount() <= 6
+    }
+
+    def "should give up on a request that takes longer than the read timeout"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 5, latencyInMillis: 500).start()
+            environmentVariables.setProperty(ZephyrConfiguration.READ_TIMEOUT, '50')
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            thrown(Exception)
+    }
+
+    def "should report a failure when the server is unavailable"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, errorRate: 1.0).start()
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_RETRIES, '2')
+            environmentVariables.setProperty(ZephyrConfiguration.RETRY_BACKOFF, '10')
+        when:
+            adaptorFor(standIn).loadOutcomes()
+        then:
+            thrown(Exception)
+            standIn.requestsTo("/rest/api/latest/search") == 3
+    }
+
+    def "should fetch the labels, schedule and steps of a test at the same time when converting it asynchronously"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 3, latencyInMillis: 200).start()
+            def adaptor = adaptorFor(standIn)
+            def issue = adaptor.restClient.findByKeyAsync(standIn.testKey(2)).get().get()
+            standIn.maximumConcurrentRequests.set(0)
+        when:
+            def outcome = adaptor.convertAsync(issue).get()
+        then:
+            // two labels, a schedule and the steps, of which at least the schedule, the steps and a label overlap
+            standIn.maximumConcurrentRequests.get() >= 3
+        and:
+            outcome.result == TestResult.PENDING
+            outcome.testSteps.size() == 2
+            outcome.userStory.name == standIn.storyNameOf(2)
+    }
+
+    def "should send asynchronous requests on daemon threads, so that an adaptor left open does not keep the JVM running"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 3).start()
+            def adaptor = adaptorFor(standIn)
+        when:
+            adaptor.restClient.findByKeyAsync(standIn.testKey(2)).get()
+            def requestThreads = Thread.getAllStackTraces().keySet().findAll { it.name.startsWith("zephyr-http-") }
+        then:
+            !requestThreads.isEmpty()
+            requestThreads.every { it.daemon }
+    }
+
+    def "should hold no more request threads than there are requests allowed in flight"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, latencyInMillis: 50).start()
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_CONCURRENT_REQUESTS, '3')
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_CONNECTIONS_PER_ROUTE, '10')
+            def adaptor = adaptorFor(standIn)
+        when:
+            def lookups = (0..<20).collect { adaptor.restClient.findByKeyAsync(standIn.testKey(it)) }
+            lookups*.get()
+        then:
+            standIn.maximumConcurrentRequests.get() <= 3
+            adaptor.restClient.asyncRequestExecutor.largestPoolSize == 3
+    }
+
+    def "should fetch the schedule and steps of each test at the same time when loading a project"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 5, storyCount: 1, latencyInMillis: 200).start()
+            environmentVariables.setProperty(ZephyrConfiguration.FETCH_PARALLELISM, '1')
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes.size() == 5
+            // with a single fetch thread, requests only overlap if a test's schedule and steps are fetched together
+            standIn.maximumConcurrentRequests.get() >= 2
+    }
+
+    def "should convert a single test with the blocking call too"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, storyCount: 3).start()
+            def adaptor = adaptorFor(standIn)
+        when:
+            def outcome = adaptor.convert(adaptor.restClient.findByKeyAsync(standIn.testKey(0)).get().get())
+        then:
+            outcome.result == TestResult.SUCCESS
+    }
+
+    def "should retry requests the server is too busy to answer"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 40, errorRate: 0.3).start()
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_RETRIES, '10')
+            environmentVariables.setProperty(ZephyrConfiguration.RETRY_BACKOFF, '10')
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes.size() == 40
+            standIn.requestsTo("/rest/zephyr/1.0/schedule") > 40
+    }
+
+    def "should wait as long as the server asks before trying again"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 5, throttledRequests: 1, retryAfterInSeconds: 1).start()
+        when:
+            def outcomes = adaptorFor(standIn).loadOutcomes()
+        then:
+            outcomes.size() == 5
+            standIn.requestsBeforeRetryAfter.get() == 0
+    }
+
+    def "should not send more requests a second than configured"() {
+        given:
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_REQUESTS_PER_SECOND, '20')
+            def throttle = new RequestThrottle(new ZephyrConfiguration(environmentVariables))
+        expect:
+            // the first request is let through at once, and each of the next waits for its turn, a twentieth of a second
+            throttle.tryAcquire() == 0
+            (1..5).collect { throttle.tryAcquire() } == [50L] * 5
+    }
+
+    def "should slow down when throttled, then recover as requests succeed"() {
+        given:
+            environmentVariables.setProperty(ZephyrConfiguration.MAX_REQUESTS_PER_SECOND, '40')
+            def throttle = new RequestThrottle(new ZephyrConfiguration(environmentVariables))
+        when:
+            throttle.throttled(0, Optional.absent())
+        then:
+            throttle.requestsPerSecond == 20
+        when:
+            200.times { throttle.succeeded() }
+        then:
+            throttle.requestsPerSecond == 40
+    }
+}
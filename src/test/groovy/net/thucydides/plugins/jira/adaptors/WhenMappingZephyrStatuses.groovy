@@ -0,0 +1,145 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.base.Optional
+import net.thucydides.core.model.TestResult
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.adaptors.ZephyrResponseReader.LatestSchedule
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class WhenMappingZephyrStatuses extends Specification {
+
+    def statusNames = ["-1": "UNEXECUTED", "1": "PASS", "2": "FAIL", "3": "WIP", "4": "BLOCKED"]
+
+    def "should look up the result of each status by its id"() {
+        given:
+            def statuses = StatusTable.from(statusNames, ManualTestConverter.DEFAULT_STATUS_RESULTS)
+        expect:
+            statuses.resultOf(statusId, null) == expectedResult
+        where:
+            statusId | expectedResult
+            "1"      | TestResult.SUCCESS
+            "2"      | TestResult.FAILURE
+            "3"      | TestResult.PENDING
+            "4"      | TestResult.SKIPPED
+            "-1"     | TestResult.IGNORED
+    }
+
+    def "should fall back on the status name for statuses that are not in the table"() {
+        given:
+            def statuses = StatusTable.from(statusNames, ManualTestConverter.DEFAULT_STATUS_RESULTS)
+        expect:
+            statuses.resultOf("9", "FAIL") == TestResult.FAILURE
+            statuses.resultOf("not an id", "PASS") == TestResult.SUCCESS
+            statuses.resultOf("9", "SOMETHING ELSE") == TestResult.PENDING
+            statuses.resultOf("9", null) == TestResult.PENDING
+    }
+
+    def "should map custom statuses given to the converter"() {
+        given:
+            def converter = new ManualTestConverter(ManualTestConverter.DEFAULT_STATUS_RESULTS + [RETEST: TestResult.FAILURE])
+        when:
+            def record = converter.executionRecordFrom(scheduleWith("7", ["1": "PASS", "7": "RETEST"]))
+        then:
+            record.testResult == TestResult.FAILURE
+    }
+
+    def "should map a status by its id whatever its name"() {
+        given:
+            def converter = new ManualTestConverter(ManualTestConverter.DEFAULT_STATUS_RESULTS, ["7": TestResult.SKIPPED], [:])
+            converter.startLoad()
+        expect:
+            converter.executionRecordFrom(scheduleWith("7", ["1": "PASS", "7": "RETEST"])).testResult == TestResult.SKIPPED
+            converter.executionRecordFrom(scheduleWith("1", [:])).testResult == TestResult.SUCCESS
+    }
+
+    def "should read custom statuses by name and by id from the configuration"() {
+        given:
+            def environmentVariables = new MockEnvironmentVariables()
+            environmentVariables.setProperty(ZephyrConfiguration.STATUS_NAMES, "RETEST = failure, N/A=IGNORED,, WIP=SKIPPED")
+            environmentVariables.setProperty(ZephyrConfiguration.STATUS_IDS, "7=PENDING, -1=SKIPPED")
+            def configuration = new ZephyrConfiguration(environmentVariables)
+        expect:
+            configuration.statusResultsByName == [RETEST: TestResult.FAILURE, "N/A": TestResult.IGNORED, WIP: TestResult.SKIPPED]
+            configuration.statusResultsById == ["7": TestResult.PENDING, "-1": TestResult.SKIPPED]
+        and:
+            ManualTestConverter.defaultStatusResultsWith(configuration.statusResultsByName).WIP == TestResult.SKIPPED
+            ManualTestConverter.defaultStatusResultsWith(configuration.statusResultsByName).PASS == TestResult.SUCCESS
+    }
+
+    def "should not accept a status mapping it cannot read"() {
+        given:
+            def environmentVariables = new MockEnvironmentVariables()
+            environmentVariables.setProperty(property, mapping)
+        when:
+            def configuration = new ZephyrConfiguration(environmentVariables)
+            configuration.statusResultsByName
+            configuration.statusResultsById
+            configuration.stepStatusResultsById
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            property                            | mapping
+            ZephyrConfiguration.STATUS_NAMES    | "RETEST=BROKEN"
+            ZephyrConfiguration.STATUS_NAMES    | "RETEST"
+            ZephyrConfiguration.STATUS_IDS      | "RETEST=FAILURE"
+            ZephyrConfiguration.STEP_STATUS_IDS | "RETEST=FAILURE"
+    }
+
+    def "should map step statuses through Zephyr's list of step statuses"() {
+        given:
+            def converter = new ManualTestConverter(ManualTestConverter.DEFAULT_STATUS_RESULTS + [RETEST: TestResult.FAILURE],
+                                                    [:], ["6": TestResult.SKIPPED])
+            def record = new ManualTestRecord(10001L, "PAV-1", "Testing some stuff", null, [], Optional.absent(),
+                                              new TestExecutionRecord(TestResult.SUCCESS, null, false, 42L),
+                                              [101L, 102L, 103L], ["One", "Two", "Three"], [])
+            def execution = new TestExecutionRecord(TestResult.SUCCESS, null, false, 43L)
+            def stepStatuses = [101L: "1", 102L: "5", 103L: "6"]
+        expect:
+            converter.withLatestExecution(record, execution, stepStatuses).stepResults ==
+                    [TestResult.SUCCESS, TestResult.SUCCESS, TestResult.SKIPPED]
+        when:
+            converter.useStepStatuses(["1": "PASS", "5": "RETEST", "6": "N/A"])
+        then:
+            converter.withLatestExecution(record, execution, stepStatuses).stepResults ==
+                    [TestResult.SUCCESS, TestResult.FAILURE, TestResult.SKIPPED]
+    }
+
+    def "should keep using the statuses of the first status map for the rest of the load"() {
+        given:
+            def converter = new ManualTestConverter()
+            converter.startLoad()
+            converter.executionRecordFrom(scheduleWith("1", ["1": "PASS", "2": "FAIL"]))
+        expect:
+            converter.knowsExecutionStatuses()
+            converter.executionRecordFrom(scheduleWith("2", [:])).testResult == TestResult.FAILURE
+        when:
+            converter.startLoad()
+        then:
+            !converter.knowsExecutionStatuses()
+            converter.executionRecordFrom(scheduleWith("2", ["2": "PASS"])).testResult == TestResult.SUCCESS
+    }
+
+    def "should build a single status table when several threads read status maps at once"() {
+        given:
+            def converter = new ManualTestConverter()
+            converter.startLoad()
+            def pool = Executors.newFixedThreadPool(8)
+        when:
+            def results = (1..200).collect { test ->
+                pool.submit({
+                    converter.executionRecordFrom(scheduleWith("${test % 2 + 1}", statusNames)).testResult
+                } as Callable)
+            }*.get()
+        then:
+            results == (1..200).collect { it % 2 == 0 ? TestResult.SUCCESS : TestResult.FAILURE }
+        cleanup:
+            pool.shutdown()
+    }
+
+    def scheduleWith(String executionStatus, Map<String, String> statusNames) {
+        new LatestSchedule(true, "12", executionStatus, null, statusNames[executionStatus], statusNames)
+    }
+}
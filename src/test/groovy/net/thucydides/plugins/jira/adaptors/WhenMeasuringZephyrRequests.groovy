@@ -0,0 +1,115 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.cache.CacheStats
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.service.SystemPropertiesJIRAConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class WhenMeasuringZephyrRequests extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+    ZephyrStandIn standIn
+    List<ZephyrAdaptor> adaptors = []
+
+    def cleanup() {
+        adaptors*.close()
+        standIn?.stop()
+    }
+
+    def adaptorFor(ZephyrStandIn standIn, ZephyrMetrics metrics) {
+        environmentVariables.setProperty('jira.url', standIn.url)
+        environmentVariables.setProperty('jira.username', 'bruce')
+        environmentVariables.setProperty('jira.password', 'secret')
+        environmentVariables.setProperty('jira.project', standIn.project)
+        def adaptor = new ZephyrAdaptor(new SystemPropertiesJIRAConfiguration(environmentVariables), environmentVariables,
+                                        metrics)
+        adaptors << adaptor
+        adaptor
+    }
+
+    def "should count the requests made to each endpoint"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 30, storyCount: 3).start()
+            def metrics = new EndpointMetrics()
+        when:
+            adaptorFor(standIn, metrics).loadOutcomes()
+        then:
+            def statistics = metrics.endpointStatistics
+            statistics[ZephyrMetrics.SCHEDULE].requestCount == 30
+            statistics[ZephyrMetrics.TEST_STEPS].requestCount == 30
+            statistics[ZephyrMetrics.SEARCH].requestCount == standIn.requestsTo("/rest/api/latest/search")
+            statistics[ZephyrMetrics.ISSUE].requestCount == standIn.requestsTo("/rest/api/2/issue")
+        and:
+            statistics[ZephyrMetrics.SCHEDULE].bytesReceived > 0
+            statistics.values().every { it.failureCount == 0 }
+    }
+
+    def "should measure how long the requests take"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, latencyInMillis: 25).start()
+            def metrics = new EndpointMetrics()
+        when:
+            adaptorFor(standIn, metrics).loadOutcomes()
+        then:
+            def schedules = metrics.endpointStatistics[ZephyrMetrics.SCHEDULE]
+            schedules.getLatencyPercentileInMicros(0.5) >= TimeUnit.MILLISECONDS.toMicros(25)
+            schedules.getLatencyPercentileInMicros(0.99) >= schedules.getLatencyPercentileInMicros(0.5)
+    }
+
+    def "should count failed requests"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 10, errorRate: 1.0).start()
+            def metrics = new EndpointMetrics()
+        when:
+            adaptorFor(standIn, metrics).loadOutcomes()
+        then:
+            thrown(Exception)
+            metrics.endpointStatistics[ZephyrMetrics.SEARCH].failureCount > 0
+    }
+
+    def "should summarise the requests and the label cache at the end of each load"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 20, storyCount: 2).start()
+            def metrics = new EndpointMetrics()
+        when:
+            adaptorFor(standIn, metrics).loadOutcomes()
+        then:
+            metrics.labelCacheStats.hitCount() > 0
+            metrics.summary.contains("schedule")
+            metrics.summary.contains("p95")
+            metrics.summary.contains("label cache")
+    }
+
+    def "should report to any metrics implementation"() {
+        given:
+            standIn = new ZephyrStandIn(testCount: 5).start()
+            def endpoints = [] as Set
+            def completedLoads = 0
+            def metrics = [requestCompleted: { String endpoint, long duration, long bytes -> endpoints << endpoint },
+                           requestFailed   : { String endpoint, long duration -> },
+                           loadCompleted   : { CacheStats stats -> completedLoads++ }] as ZephyrMetrics
+        when:
+            adaptorFor(standIn, metrics).loadOutcomes()
+        then:
+            endpoints.containsAll([ZephyrMetrics.SEARCH, ZephyrMetrics.SCHEDULE, ZephyrMetrics.TEST_STEPS])
+            completedLoads == 1
+    }
+
+    def "should work out latency percentiles to within an eighth"() {
+        given:
+            def histogram = new LatencyHistogram()
+        when:
+            (1..1000).each { histogram.record(TimeUnit.MILLISECONDS.toNanos(it)) }
+        then:
+            histogram.count() == 1000
+            within(histogram.percentileInMicros(0.50), 500_000)
+            within(histogram.percentileInMicros(0.95), 950_000)
+            within(histogram.percentileInMicros(0.99), 990_000)
+    }
+
+    boolean within(long measured, long expected) {
+        measured >= expected && measured <= expected * 1.125
+    }
+}
@@ -0,0 +1,46 @@
+package net.thucydides.plugins.jira.adaptors
+
+import org.joda.time.DateTime
+import org.joda.time.LocalDate
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class WhenParsingZephyrDates extends Specification {
+
+    def parser = new ZephyrDateParser(new DateTime(2013,1,1,15,30))
+
+    def "should parse absolute and relative Zephyr dates"() {
+        expect:
+            parser.parse(zephyrDate) == expectedDate
+        where:
+            zephyrDate           | expectedDate
+            "26/Jul/13 4:03 PM"  | new DateTime(2013,7,26,16,3)
+            "1/Jan/13 12:00 AM"  | new DateTime(2013,1,1,0,0)
+            "Today 9:13 AM"      | new DateTime(2013,1,1,9,13)
+            "Today 4:03 PM"      | new DateTime(2013,1,1,16,3)
+            "Yesterday 11:59 PM" | new DateTime(2012,12,31,23,59)
+            "Sunday 9:13 AM"     | new DateTime(2012,12,30,9,13)
+            "Wednesday 9:13 AM"  | new DateTime(2012,12,26,9,13)
+    }
+
+    def "should know which day relative dates are counted from"() {
+        expect:
+            parser.isRelativeTo(new LocalDate(2013,1,1))
+            !parser.isRelativeTo(new LocalDate(2013,1,2))
+    }
+
+    def "should give the same results when shared between threads"() {
+        given:
+            def executor = Executors.newFixedThreadPool(8)
+        when:
+            def results = (1..8).collect {
+                executor.submit({ (1..500).collect { parser.parse("Yesterday 9:13 AM") } } as Callable)
+            }.collectMany { it.get() }
+        then:
+            results.every { it == new DateTime(2012,12,31,9,13) }
+        cleanup:
+            executor.shutdown()
+    }
+}
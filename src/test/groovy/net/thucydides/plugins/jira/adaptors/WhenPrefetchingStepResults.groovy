@@ -0,0 +1,48 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.util.concurrent.Futures
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+
+class WhenPrefetchingStepResults extends Specification {
+
+    def "should request each execution once however often it is prefetched"() {
+        given:
+            def lookupCount = new AtomicInteger()
+            def store = new StepResultStore({ executionId -> lookupCount.incrementAndGet(); Futures.immediateFuture([301L: "1"]) }
+                                                    as StepResultStore.StepResultLookup)
+        when:
+            store.prefetch([12L, 13L])
+            store.prefetch([12L])
+        then:
+            lookupCount.get() == 2
+            store.take(12L).get() == [301L: "1"]
+    }
+
+    def "should request an execution that was not prefetched when it is taken"() {
+        given:
+            def lookupCount = new AtomicInteger()
+            def store = new StepResultStore({ executionId -> lookupCount.incrementAndGet(); Futures.immediateFuture([:]) }
+                                                    as StepResultStore.StepResultLookup)
+        when:
+            store.prefetch([12L])
+            store.take(12L).get()
+            store.take(12L).get()
+        then:
+            lookupCount.get() == 2
+    }
+
+    def "should pass on a failed prefetch to whoever takes it"() {
+        given:
+            def store = new StepResultStore({ executionId -> Futures.immediateFailedFuture(new IllegalStateException()) }
+                                                    as StepResultStore.StepResultLookup)
+        when:
+            store.prefetch([12L])
+            store.take(12L).get()
+        then:
+            def failure = thrown(ExecutionException)
+            failure.cause instanceof IllegalStateException
+    }
+}
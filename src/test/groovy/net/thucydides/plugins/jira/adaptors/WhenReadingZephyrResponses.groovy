@@ -0,0 +1,140 @@
+package net.thucydides.plugins.jira.adaptors
+
+import spock.lang.Specification
+
+class WhenReadingZephyrResponses extends Specification {
+
+    def reader = new ZephyrResponseReader()
+
+    def "should read the latest schedule and its status name"() {
+        given:
+            def response = '''{"schedules":[{"id":12,"executionStatus":"1","executedOn":"Today 9:13 AM","comment":"ok"},
+                                             {"id":11,"executionStatus":"2","executedOn":"Yesterday 9:13 AM"}],
+                               "status":{"1":{"id":1,"name":"PASS","color":"#75B000"},
+                                         "2":{"id":2,"name":"FAIL","color":"#CC3300"}}}'''
+        when:
+            def latestSchedule = reader.readLatestScheduleFrom(streamOf(response))
+        then:
+            latestSchedule.isScheduled
+            latestSchedule.executionId == "12"
+            latestSchedule.executionStatus == "1"
+            latestSchedule.executedOn == "Today 9:13 AM"
+            latestSchedule.statusName == "PASS"
+    }
+
+    def "should find the status name when the status map comes before the schedules"() {
+        given:
+            def response = '''{"status":{"1":{"id":1,"name":"PASS"},"2":{"id":2,"name":"FAIL"}},
+                               "schedules":[{"id":12,"executionStatus":2,"executedOn":"Today 9:13 AM"}]}'''
+        when:
+            def latestSchedule = reader.readLatestScheduleFrom(streamOf(response))
+        then:
+            latestSchedule.executionStatus == "2"
+            latestSchedule.statusName == "FAIL"
+    }
+
+    def "should stop reading once the latest schedule and its status have been found"() {
+        given:
+            def response = '''{"schedules":[{"id":12,"executionStatus":"1"}],
+                               "status":{"1":{"id":1,"name":"PASS"}},
+                               "truncated": ['''
+        when:
+            def latestSchedule = reader.readLatestScheduleFrom(streamOf(response))
+        then:
+            latestSchedule.statusName == "PASS"
+    }
+
+    def "should read every status name along with the latest schedule"() {
+        given:
+            def response = '''{"schedules":[{"id":12,"executionStatus":"1"}],
+                               "status":{"1":{"id":1,"name":"PASS"},"2":{"id":2,"name":"FAIL"},"7":{"id":7,"name":"RETEST"}}}'''
+        when:
+            def latestSchedule = reader.readLatestScheduleFrom(streamOf(response))
+        then:
+            latestSchedule.statusNames == ["1": "PASS", "2": "FAIL", "7": "RETEST"]
+    }
+
+    def "should skip the status map once the statuses are known"() {
+        given:
+            def response = '''{"schedules":[{"id":12,"executionStatus":"2"}],
+                               "status": {"truncated": ['''
+        when:
+            def latestSchedule = reader.readLatestScheduleFrom(streamOf(response), true)
+        then:
+            latestSchedule.executionStatus == "2"
+            latestSchedule.statusName == null
+            latestSchedule.statusNames.isEmpty()
+    }
+
+    def "should recognise a test that has never been scheduled"() {
+        when:
+            def latestSchedule = reader.readLatestScheduleFrom(streamOf('{"schedules":[],"status":{"1":{"name":"PASS"}}}'))
+        then:
+            !latestSchedule.isScheduled
+            latestSchedule.executedOn == null
+    }
+
+    def "should read every schedule and every status name for the execution history"() {
+        given:
+            def response = '''{"schedules":[{"id":12,"executionStatus":"1","executedOn":"Today 9:13 AM"},
+                                             {"id":11,"executionStatus":"2","executedOn":"Yesterday 9:13 AM"},
+                                             {"id":10,"executionStatus":"-1"}],
+                               "status":{"1":{"id":1,"name":"PASS"},"2":{"id":2,"name":"FAIL"},
+                                         "-1":{"id":-1,"name":"UNEXECUTED"}}}'''
+        when:
+            def history = reader.readScheduleHistoryFrom(streamOf(response))
+        then:
+            history.schedules*.id == ["12", "11", "10"]
+            history.schedules*.executionStatus == ["1", "2", "-1"]
+            history.statusNames == ["1": "PASS", "2": "FAIL", "-1": "UNEXECUTED"]
+        and:
+            history.latestSchedule().executionId == "12"
+            history.latestSchedule().statusName == "PASS"
+    }
+
+    def "should read the step descriptions in order"() {
+        given:
+            def response = '''[{"id":1,"orderId":1,"htmlStep":"<p>Do something</p>","attachmentsMap":[]},
+                               {"id":2,"orderId":2,"htmlStep":"<p>Do something else</p>","data":null}]'''
+        when:
+            def steps = reader.readStepsFrom(streamOf(response))
+        then:
+            steps*.description == ["<p>Do something</p>", "<p>Do something else</p>"]
+    }
+
+    def "should read the id of each step"() {
+        given:
+            def response = '''[{"id":301,"orderId":1,"htmlStep":"<p>Do something</p>"},
+                               {"id":302,"orderId":2,"htmlStep":"<p>Do something else</p>"}]'''
+        when:
+            def steps = reader.readStepsFrom(streamOf(response))
+        then:
+            steps*.id == [301, 302]
+            steps*.description == ["<p>Do something</p>", "<p>Do something else</p>"]
+    }
+
+    def "should give a step without any text an empty description"() {
+        given:
+            def response = '''[{"id":301,"orderId":1,"step":"","htmlStep":null},
+                               {"id":302,"orderId":2}]'''
+        when:
+            def steps = reader.readStepsFrom(streamOf(response))
+        then:
+            steps*.id == [301, 302]
+            steps*.description == ["", ""]
+    }
+
+    def "should read the status of each step of an execution"() {
+        given:
+            def response = '''[{"id":1,"executionId":12,"stepId":301,"status":"1","comment":""},
+                               {"id":2,"executionId":12,"stepId":302,"status":"2","defects":[]}]'''
+        when:
+            def stepStatuses = reader.readStepStatusesFrom(streamOf(response))
+        then:
+            stepStatuses == [301L: "1", 302L: "2"]
+    }
+
+    def streamOf(String json) {
+        new ByteArrayInputStream(json.getBytes("UTF-8"))
+    }
+}
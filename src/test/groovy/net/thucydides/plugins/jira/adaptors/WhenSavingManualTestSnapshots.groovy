@@ -0,0 +1,153 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.google.common.base.Optional
+import net.thucydides.core.model.TestResult
+import org.joda.time.DateTime
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class WhenSavingManualTestSnapshots extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    static final String SOURCE = "url=http://jira.acme.com; queries=[type=Test and project=PAV]"
+
+    File snapshotFile
+
+    def setup() {
+        snapshotFile = new File(temporaryFolder.newFolder(), "zephyr-snapshot.bin")
+    }
+
+    def "should read back the manual test records that were written"() {
+        given:
+            def snapshot = new ManualTestSnapshot(snapshotFile, SOURCE)
+            def executedOn = new DateTime(2013,8,28,11,3)
+            def record = new ManualTestRecord(10001L, "PAV-1", "Testing some stuff", "<h2>Scenario</h2>",
+                                              ["PAV-2"], Optional.of("Some story"),
+                                              new TestExecutionRecord(TestResult.SUCCESS, executedOn, false),
+                                              ["Do something", "Do something else"])
+        when:
+            def writer = snapshot.writer()
+            writer.write(record)
+            writer.commit()
+        and:
+            def records = []
+            snapshot.readRecords({ records << it } as ResultHandler)
+        then:
+            records.size() == 1
+            records[0].key == "PAV-1"
+            records[0].description == "<h2>Scenario</h2>"
+            records[0].associatedIssueKeys == ["PAV-2"]
+            records[0].associatedStoryName.get() == "Some story"
+            records[0].executionRecord.testResult == TestResult.SUCCESS
+            records[0].executionRecord.executionDate == executedOn
+            records[0].stepDescriptions == ["Do something", "Do something else"]
+    }
+
+    def "should read back the execution id, and the id and result of each step"() {
+        given:
+            def snapshot = new ManualTestSnapshot(snapshotFile, SOURCE)
+            def record = new ManualTestRecord(10001L, "PAV-1", "Testing some stuff", null, [], Optional.absent(),
+                                              new TestExecutionRecord(TestResult.FAILURE, null, false, 42L),
+                                              [101L, 102L],
+                                              ["Do something", "Do something else"],
+                                              [TestResult.SUCCESS, TestResult.FAILURE])
+        when:
+            def writer = snapshot.writer()
+            writer.write(record)
+            writer.commit()
+        and:
+            def records = []
+            snapshot.readRecords({ records << it } as ResultHandler)
+        then:
+            records[0].executionRecord.executionId == 42L
+            records[0].stepIds == [101L, 102L]
+            records[0].stepResults == [TestResult.SUCCESS, TestResult.FAILURE]
+    }
+
+    def "should only use a snapshot younger than the maximum age"() {
+        given:
+            def snapshot = new ManualTestSnapshot(snapshotFile, SOURCE)
+            def writer = snapshot.writer()
+            writer.commit()
+        when:
+            Thread.sleep(10)
+        then:
+            snapshot.isYoungerThan(60000)
+            !snapshot.isYoungerThan(0)
+    }
+
+    def "should treat a snapshot of another source as out of date"() {
+        given:
+            def writer = new ManualTestSnapshot(snapshotFile, SOURCE).writer()
+            writer.commit()
+        when:
+            def snapshot = new ManualTestSnapshot(snapshotFile, "url=http://jira.acme.com; queries=[type=Test and project=ALT]")
+        then:
+            !snapshot.syncedAt().isPresent()
+            !snapshot.isYoungerThan(60000)
+            snapshot.canBeWritten()
+    }
+
+    def "should not use a snapshot that does not exist"() {
+        expect:
+            !new ManualTestSnapshot(snapshotFile, SOURCE).isYoungerThan(60000)
+    }
+
+    def "should leave the previous snapshot in place if a load is not completed"() {
+        given:
+            def snapshot = new ManualTestSnapshot(snapshotFile, SOURCE)
+            def writer = snapshot.writer()
+            writer.commit()
+        when:
+            def abandonedWriter = snapshot.writer()
+            abandonedWriter.write(new ManualTestRecord(10001L, "PAV-1", "Testing some stuff", null, [], Optional.absent(),
+                                                       new TestExecutionRecord(TestResult.PENDING, null, false), []))
+            abandonedWriter.close()
+        and:
+            def records = []
+            snapshot.readRecords({ records << it } as ResultHandler)
+        then:
+            records.isEmpty()
+            snapshotFile.parentFile.listFiles().length == 1
+    }
+
+    def "should keep the snapshot in a file of its own when given a directory"() {
+        given:
+            def directory = temporaryFolder.newFolder()
+            def snapshot = new ManualTestSnapshot(directory, SOURCE)
+        when:
+            def writer = snapshot.writer()
+            writer.commit()
+        then:
+            directory.isDirectory()
+            new File(directory, ManualTestSnapshot.FILE_NAME).isFile()
+            snapshot.isYoungerThan(60000)
+    }
+
+    def "should treat a file it did not write as no snapshot at all"() {
+        given:
+            snapshotFile.text = contents
+            def snapshot = new ManualTestSnapshot(snapshotFile, SOURCE)
+        expect:
+            !snapshot.syncedAt().isPresent()
+            !snapshot.isYoungerThan(60000)
+            !snapshot.canBeWritten()
+        where:
+            contents << ["Some manual test notes", "", "ZMT"]
+    }
+
+    def "should replace a snapshot it wrote in an older format"() {
+        given:
+            def output = new DataOutputStream(new FileOutputStream(snapshotFile))
+            output.writeInt(0x5A4D5453)
+            output.writeInt(1)
+            output.close()
+            def snapshot = new ManualTestSnapshot(snapshotFile, SOURCE)
+        expect:
+            !snapshot.syncedAt().isPresent()
+            snapshot.canBeWritten()
+    }
+}
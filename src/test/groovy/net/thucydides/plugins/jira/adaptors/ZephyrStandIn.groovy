@@ -0,0 +1,439 @@
+package net.thucydides.plugins.jira.adaptors
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import groovy.json.JsonOutput
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * An embedded stand-in for the JIRA and Zephyr REST APIs the adaptor uses, serving one or more synthetic projects
+ * of manual tests, and the stories they are labelled with in the first project.
+ * Each request can be delayed, a proportion of them can fail with a 503, and the first few can be turned away
+ * with a 429 and a Retry-After header, to see how the adaptor copes with a slow, overloaded or throttling server.
+ * Rather than timing the adaptor, specs check what the stand-in saw: how many requests were served at once,
+ * for how many projects at once, and whether any request came before the Retry-After time was up.
+ * Executed tests can be given several executions, the latest of which has the test's status,
+ * and some tests can be descoped in their latest execution.
+ * The first step of a retested test has RETEST, a custom step status, as its result.
+ * Tests can still be labelled with stories that have since been deleted from JIRA.
+ */
+class ZephyrStandIn {
+
+    static final List<String> STATUS_NAMES = ["PASS", "FAIL", "WIP", "BLOCKED"]
+    static final List<String> STEP_STATUS_NAMES = STATUS_NAMES + ["RETEST"]
+
+    final String project
+    final List<String> projects
+    final int testCount
+    final int storyCount
+    final long latencyInMillis
+    final double errorRate
+    final int throttledRequests
+    final int retryAfterInSeconds
+    final int executionsPerTest
+    final Set<Integer> descopedTests
+    final Set<Integer> retestedTests
+    final Set<Integer> deletedStories
+
+    final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>()
+    final AtomicInteger maximumConcurrentRequests = new AtomicInteger()
+    final AtomicInteger maximumConcurrentProjects = new AtomicInteger()
+    final AtomicInteger requestsBeforeRetryAfter = new AtomicInteger()
+    final Set<String> clientConnections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+
+    private final AtomicInteger concurrentRequests = new AtomicInteger()
+    private final AtomicInteger requestsSoFar = new AtomicInteger()
+    private final Map<String, Integer> requestsInFlightByProject = [:]
+    private volatile long retryAfterExpiresAt
+    private final Random random = new Random(42)
+    private HttpServer server
+    private ExecutorService executor
+
+    ZephyrStandIn(Map options = [:]) {
+        projects = options.projects ?: [options.project ?: "SYN"]
+        project = projects[0]
+        testCount = options.testCount ?: 100
+        storyCount = options.storyCount ?: 10
+        latencyInMillis = options.latencyInMillis ?: 0
+        errorRate = options.errorRate ?: 0.0
+        throttledRequests = options.throttledRequests ?: 0
+        retryAfterInSeconds = options.retryAfterInSeconds ?: 1
+        executionsPerTest = options.executionsPerTest ?: 1
+        descopedTests = (options.descopedTests ?: []) as Set
+        retestedTests = (options.retestedTests ?: []) as Set
+        deletedStories = (options.deletedStories ?: []) as Set
+    }
+
+    ZephyrStandIn start() {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        executor = Executors.newCachedThreadPool()
+        server.executor = executor
+        server.createContext("/", { HttpExchange exchange -> serve(exchange) } as HttpHandler)
+        server.start()
+        return this
+    }
+
+    void stop() {
+        server.stop(0)
+        executor.shutdownNow()
+    }
+
+    String getUrl() {
+        "http://localhost:${server.address.port}"
+    }
+
+    /**
+     * How many different connections the requests came in on.
+     */
+    int connectionCount() {
+        clientConnections.size()
+    }
+
+    int requestsTo(String endpoint) {
+        requestCounts[endpoint]?.get() ?: 0
+    }
+
+    /**
+     * The synthetic tests have ids from 10001, followed by the stories. Each project has testCount tests,
+     * numbered one project after another, with keys from 1 within the project.
+     */
+    long testId(int test) { 10001 + test }
+
+    int totalTestCount() { testCount * projects.size() }
+
+    String projectOf(int test) { projects[test.intdiv(testCount)] }
+
+    List<Integer> testsIn(String project) {
+        int first = projects.indexOf(project) * testCount
+        (first..<(first + testCount)).toList()
+    }
+
+    String testKey(int test) { "${projectOf(test)}-${test % testCount + 1}" }
+
+    String storyKey(int story) { "$project-${testCount + story + 1}" }
+
+    boolean isExecuted(int test) { test % 5 != 4 || isDescoped(test) }
+
+    boolean isDescoped(int test) { descopedTests.contains(test) }
+
+    String statusNameOf(int test) { STATUS_NAMES[test % STATUS_NAMES.size()] }
+
+    /**
+     * Every third test is flaky: its earlier executions alternate between passing and failing.
+     */
+    boolean isFlaky(int test) { test % 3 == 0 }
+
+    String statusNameOf(int test, int execution) {
+        boolean latest = (execution == executionsPerTest - 1)
+        if (latest && isDescoped(test)) {
+            return "DESCOPED"
+        }
+        (latest || !isFlaky(test)) ? statusNameOf(test) : STATUS_NAMES[execution % 2]
+    }
+
+    /**
+     * Execution ids are allocated in sequence, so the executions of every test come before the next ones.
+     * The latest execution of a test with a single execution has the id test + 1.
+     */
+    long executionId(int test, int execution) { execution * totalTestCount() + test + 1 }
+
+    int stepCountOf(int test) { test % 5 }
+
+    long stepId(int test, int step) { test * 10 + step + 1 }
+
+    /**
+     * Only the last step of a failed test fails; the steps before it pass.
+     */
+    String stepStatusNameOf(int test, int step) {
+        if (step == 0 && retestedTests.contains(test)) {
+            return "RETEST"
+        }
+        String testStatus = statusNameOf(test)
+        (testStatus == "FAIL" && step < stepCountOf(test) - 1) ? "PASS" : testStatus
+    }
+
+    String storyNameOf(int test) { "Story ${test % storyCount}" }
+
+    private void serve(HttpExchange exchange) {
+        int concurrent = concurrentRequests.incrementAndGet()
+        raiseTo(maximumConcurrentRequests, concurrent)
+        String path = exchange.requestURI.path
+        Map<String, String> query = queryParametersOf(exchange.requestURI)
+        String requestProject = projectServedBy(path, query)
+        startedRequestFor(requestProject)
+        try {
+            clientConnections << exchange.remoteAddress.toString()
+            countRequestTo(endpointOf(path))
+            if (System.currentTimeMillis() < retryAfterExpiresAt) {
+                requestsBeforeRetryAfter.incrementAndGet()
+            }
+            if (latencyInMillis > 0) {
+                Thread.sleep(latencyInMillis)
+            }
+            if (requestsSoFar.incrementAndGet() <= throttledRequests) {
+                exchange.responseHeaders.add("Retry-After", "$retryAfterInSeconds")
+                retryAfterExpiresAt = System.currentTimeMillis() + retryAfterInSeconds * 1000
+                respond(exchange, 429, [errorMessages: ["Too many requests"]])
+            } else if (errorRate > 0 && nextRandom() < errorRate) {
+                respond(exchange, 503, [errorMessages: ["Service unavailable"]])
+            } else {
+                route(exchange, path, query)
+            }
+        } catch (Exception e) {
+            respond(exchange, 500, [errorMessages: [e.toString()]])
+        } finally {
+            finishedRequestFor(requestProject)
+            concurrentRequests.decrementAndGet()
+        }
+    }
+
+    /**
+     * Raises a maximum without losing a higher value set by another request in the meantime.
+     */
+    private static void raiseTo(AtomicInteger maximum, int value) {
+        int current = maximum.get()
+        while (value > current && !maximum.compareAndSet(current, value)) {
+            current = maximum.get()
+        }
+    }
+
+    /**
+     * The project a request is about: the project searched for, or the project of the test whose schedule,
+     * steps or step results are asked for. Other requests, such as label lookups, are not counted.
+     */
+    private String projectServedBy(String path, Map<String, String> query) {
+        Integer test = null
+        if (path == "/rest/zephyr/1.0/schedule" && query.issueId) {
+            test = testNumberFor(query.issueId as long)
+        } else if (path.startsWith("/rest/zephyr/1.0/teststep/")) {
+            test = testNumberFor(path.tokenize("/").last() as long)
+        } else if (path == "/rest/zephyr/1.0/stepResult" && query.executionId) {
+            test = ((query.executionId as int) - 1) % totalTestCount()
+        } else if (path ==~ "/rest/api/(2|latest)/search" && query.jql) {
+            return projects.find { query.jql.contains("project=$it") || query.jql.contains("project = $it") }
+        }
+        (test != null && test >= 0 && test < totalTestCount()) ? projectOf(test) : null
+    }
+
+    private synchronized void startedRequestFor(String requestProject) {
+        if (requestProject != null) {
+            requestsInFlightByProject[requestProject] = (requestsInFlightByProject[requestProject] ?: 0) + 1
+            raiseTo(maximumConcurrentProjects, requestsInFlightByProject.size())
+        }
+    }
+
+    private synchronized void finishedRequestFor(String requestProject) {
+        if (requestProject != null) {
+            int remaining = requestsInFlightByProject[requestProject] - 1
+            if (remaining > 0) {
+                requestsInFlightByProject[requestProject] = remaining
+            } else {
+                requestsInFlightByProject.remove(requestProject)
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange, String path, Map<String, String> query) {
+        switch (path) {
+            case ~"/rest/api/(2|latest)/search":
+                if (query.jql =~ /(?i)\([^)]*\border\s+by\b/) {
+                    respond(exchange, 400, [errorMessages: ["Error in the JQL Query: ORDER BY is not allowed here"]])
+                } else if (unknownKeyIn(query.jql)) {
+                    respond(exchange, 400, [errorMessages: ["An issue with key '${unknownKeyIn(query.jql)}' does not exist"]])
+                } else {
+                    respond(exchange, 200, searchResults(query.jql, (query.startAt ?: "0") as int,
+                                                         (query.maxResults ?: "50") as int))
+                }
+                break
+            case ~"/rest/api/2/issue/.*":
+                def issue = issueWithKey(path.tokenize("/").last())
+                if (issue) {
+                    respond(exchange, 200, issue)
+                } else {
+                    respond(exchange, 404, [errorMessages: ["Issue Does Not Exist"]])
+                }
+                break
+            case "/rest/api/2/field":
+                respond(exchange, 200, [])
+                break
+            case "/rest/zephyr/1.0/schedule":
+                respond(exchange, 200, scheduleOf(testNumberFor(query.issueId as long)))
+                break
+            case ~"/rest/zephyr/1.0/teststep/.*":
+                respond(exchange, 200, stepsOf(testNumberFor(path.tokenize("/").last() as long)))
+                break
+            case "/rest/zephyr/1.0/stepResult":
+                respond(exchange, 200, stepResultsOf(((query.executionId as int) - 1) % totalTestCount()))
+                break
+            case "/rest/zephyr/1.0/util/teststepExecutionStatus":
+                respond(exchange, 200, STEP_STATUS_NAMES.collect { [id: STEP_STATUS_NAMES.indexOf(it) + 1, name: it] }
+                                       + [[id: -1, name: "UNEXECUTED"]])
+                break
+            case "/rest/zephyr/latest/zql/executeSearch":
+                respond(exchange, 200, executions(query.zqlQuery ?: "", (query.offset ?: "0") as int,
+                                                  (query.maxRecords ?: "20") as int))
+                break
+            default:
+                respond(exchange, 404, [errorMessages: ["No stand-in for $path"]])
+        }
+    }
+
+    private Map searchResults(String jql, int startAt, int maxResults) {
+        def matchingIssues = (jql =~ /(?i)order\s+by\s+key\s+desc\s*$/) ? issuesMatching(jql).reverse()
+                                                                          : issuesMatching(jql)
+        def page = matchingIssues.drop(startAt).take(maxResults)
+        [startAt: startAt, maxResults: maxResults, total: matchingIssues.size(), issues: page]
+    }
+
+    /**
+     * Only the queries the adaptor sends are understood: the tests in a project or a list of projects,
+     * an issue id and a list of keys. The synthetic issues are never updated.
+     * Like JIRA, the stand-in rejects an ORDER BY inside parentheses and a list of keys naming an issue
+     * that does not exist, and can sort issues by descending key.
+     */
+    private List<Map> issuesMatching(String jql) {
+        if (jql.contains("updated >=")) {
+            return []
+        }
+        def keys = (jql =~ /key in \((.*)\)/)
+        if (keys) {
+            return keys[0][1].split(",")*.trim().collect { issueWithKey(it) }.findAll()
+        }
+        def id = (jql =~ /id\s*=\s*(\d+)/)
+        if (id) {
+            int test = testNumberFor(id[0][1] as long)
+            return (test >= 0 && test < totalTestCount()) ? [testIssue(test)] : []
+        }
+        def projectList = (jql =~ /project in \((.*?)\)/)
+        def matchingProjects = projectList ? projectList[0][1].split(",")*.trim().findAll { projects.contains(it) }
+                                           : projects.findAll { jql.contains("project=$it") || jql.contains("project = $it") }
+        return matchingProjects.collectMany { testsIn(it) }.collect { testIssue(it) }
+    }
+
+    private String unknownKeyIn(String jql) {
+        def keys = (jql =~ /key in \((.*)\)/)
+        keys ? keys[0][1].split(",")*.trim().find { !issueWithKey(it) } : null
+    }
+
+    private Map issueWithKey(String key) {
+        int separator = key.lastIndexOf("-")
+        String keyProject = (separator > 0) ? key.substring(0, separator) : ""
+        int number = (separator > 0 && projects.contains(keyProject)) ? key.substring(separator + 1) as int : 0
+        if (number >= 1 && number <= testCount) {
+            return testIssue(projects.indexOf(keyProject) * testCount + number - 1)
+        }
+        if (keyProject == project && number > testCount && number <= testCount + storyCount
+                && !deletedStories.contains(number - testCount - 1)) {
+            return storyIssue(number - testCount - 1)
+        }
+        return null
+    }
+
+    private Map testIssue(int test) {
+        issue(testId(test), testKey(test), "Manual test $test", "Test",
+              storyCount > 0 ? [storyKey(test % storyCount), "regression"] : [])
+    }
+
+    private Map storyIssue(int story) {
+        issue(testId(totalTestCount() + story), storyKey(story), "Story $story", "Story", [])
+    }
+
+    private Map issue(long id, String key, String summary, String type, List<String> labels) {
+        [id: "$id", key: key, self: "$url/rest/api/2/issue/$id",
+         renderedFields: [description: "<p>Description of $summary</p>"],
+         fields: [summary: summary, description: "Description of $summary", issuetype: [name: type],
+                  labels: labels, fixVersions: []]]
+    }
+
+    private int testNumberFor(long id) {
+        (int) (id - 10001)
+    }
+
+    /**
+     * Zephyr lists the latest schedule first.
+     */
+    private Map scheduleOf(int test) {
+        def schedules = executionsOf(test).reverse().collect { execution ->
+            [id: executionId(test, execution), executionStatus: statusIdOf(test, execution),
+             executedOn: "26/Jul/13 4:03 PM", comment: ""]
+        }
+        [schedules: schedules, status: statusMap()]
+    }
+
+    private List<Integer> executionsOf(int test) {
+        isExecuted(test) ? (0..<executionsPerTest).toList() : []
+    }
+
+    private List<Map> stepsOf(int test) {
+        (0..<stepCountOf(test)).collect { [id: stepId(test, it), orderId: it + 1, step: "Step $it", htmlStep: "<p>Step $it</p>"] }
+    }
+
+    private List<Map> stepResultsOf(int test) {
+        (0..<stepCountOf(test)).collect {
+            [id: stepId(test, it), executionId: executionId(test, executionsPerTest - 1), stepId: stepId(test, it),
+             status: "${STEP_STATUS_NAMES.indexOf(stepStatusNameOf(test, it)) + 1}"]
+        }
+    }
+
+    /**
+     * The executions of the projects named in the ZQL query, or of every project if it names none.
+     */
+    private Map executions(String zqlQuery, int offset, int maxRecords) {
+        def matchingProjects = projects.findAll { zqlQuery.contains("project = \"$it\"") } ?: projects
+        def allExecutions = matchingProjects.collectMany { testsIn(it) }.collectMany { test ->
+            executionsOf(test).collect { [test, it] }
+        }
+        def page = allExecutions.drop(offset).take(maxRecords).collect { test, execution ->
+            [id: executionId(test, execution), issueId: testId(test), executedOn: "26/Jul/13 4:03 PM",
+             status: [id: statusIdOf(test, execution), name: statusNameOf(test, execution)]]
+        }
+        [executions: page, totalCount: allExecutions.size()]
+    }
+
+    /**
+     * The adaptor recognises a descoped execution by its status.
+     */
+    private String statusIdOf(int test, int execution) {
+        String statusName = statusNameOf(test, execution)
+        (statusName == "DESCOPED") ? statusName : "${STATUS_NAMES.indexOf(statusName) + 1}"
+    }
+
+    private Map statusMap() {
+        STATUS_NAMES.collectEntries { name ->
+            def id = STATUS_NAMES.indexOf(name) + 1
+            ["$id": [id: id, name: name]]
+        } + ["-1": [id: -1, name: "UNEXECUTED"]]
+    }
+
+    private String endpointOf(String path) {
+        path.replaceAll(/\/(issue|teststep)\/[^\/]+$/, '/$1')
+    }
+
+    private void countRequestTo(String endpoint) {
+        requestCounts.putIfAbsent(endpoint, new AtomicInteger())
+        requestCounts[endpoint].incrementAndGet()
+    }
+
+    private synchronized double nextRandom() {
+        random.nextDouble()
+    }
+
+    private Map<String, String> queryParametersOf(URI uri) {
+        (uri.rawQuery ?: "").tokenize("&").collectEntries { parameter ->
+            def (name, value) = parameter.tokenize("=") + [""]
+            [(URLDecoder.decode(name, "UTF-8")): URLDecoder.decode(value, "UTF-8")]
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) {
+        byte[] json = JsonOutput.toJson(body).getBytes("UTF-8")
+        exchange.responseHeaders.add("Content-Type", "application/json")
+        exchange.sendResponseHeaders(status, json.length)
+        exchange.responseBody.withStream { it.write(json) }
+    }
+}